@@ -31,4 +31,6 @@ CREATE TABLE Appointments (
     patient_name VARCHAR(255) REFERENCES Patients,
     app_time date,
     PRIMARY KEY (app_id)
-);
\ No newline at end of file
+);
+
+-- Everything added since is a versioned migration in migrations/, applied with scheduler.db.SchemaMigrator
@@ -0,0 +1,68 @@
+-- Columns and tables the scheduler added on top of the original create.sql, so a database created from
+-- that script can be upgraded. Each step is guarded, so a database that already has them is left as is.
+
+-- AvailabilityDays numbers caregivers by Id
+IF COL_LENGTH('Caregivers', 'Id') IS NULL
+    ALTER TABLE Caregivers ADD Id int NOT NULL IDENTITY(1,1) CONSTRAINT UQ_Caregivers_Id UNIQUE;
+
+IF COL_LENGTH('Caregivers', 'Site') IS NULL
+    ALTER TABLE Caregivers ADD Site varchar(64) NOT NULL DEFAULT 'default';
+
+IF COL_LENGTH('Availabilities', 'Site') IS NULL
+    ALTER TABLE Availabilities ADD Site varchar(64) NOT NULL DEFAULT 'default';
+
+IF OBJECT_ID('AvailabilityCalendars') IS NULL
+CREATE TABLE AvailabilityCalendars (
+    Username varchar(255) REFERENCES Caregivers,
+    Year smallint,
+    Site varchar(64) NOT NULL DEFAULT 'default',
+    W0 bigint NOT NULL DEFAULT 0,
+    W1 bigint NOT NULL DEFAULT 0,
+    W2 bigint NOT NULL DEFAULT 0,
+    W3 bigint NOT NULL DEFAULT 0,
+    W4 bigint NOT NULL DEFAULT 0,
+    W5 bigint NOT NULL DEFAULT 0,
+    PRIMARY KEY (Username, Year)
+);
+
+IF COL_LENGTH('Vaccines', 'Version') IS NULL
+    ALTER TABLE Vaccines ADD Version int NOT NULL DEFAULT 0;
+
+IF COL_LENGTH('Vaccines', 'Interval_days') IS NULL
+    ALTER TABLE Vaccines ADD Interval_days int NOT NULL DEFAULT 0;
+
+IF COL_LENGTH('Appointments', 'Site') IS NULL
+    ALTER TABLE Appointments ADD Site varchar(64) NOT NULL DEFAULT 'default';
+
+IF COL_LENGTH('Appointments', 'Request_token') IS NULL
+    ALTER TABLE Appointments ADD Request_token varchar(64) NULL;
+
+-- a retried reserve carries the same token, so it can never insert a second appointment
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'UX_Appointments_Request_token')
+    CREATE UNIQUE INDEX UX_Appointments_Request_token ON Appointments (Request_token)
+        WHERE Request_token IS NOT NULL;
+
+IF OBJECT_ID('DailyVaccineUsage') IS NULL
+CREATE TABLE DailyVaccineUsage (
+    Day date,
+    Vaccine_name VARCHAR(255) REFERENCES Vaccines,
+    Doses int NOT NULL DEFAULT 0,
+    PRIMARY KEY (Day, Vaccine_name)
+);
+
+IF OBJECT_ID('DailyCaregiverLoad') IS NULL
+CREATE TABLE DailyCaregiverLoad (
+    Day date,
+    Caregiver_name VARCHAR(255) REFERENCES Caregivers,
+    Appointments int NOT NULL DEFAULT 0,
+    PRIMARY KEY (Day, Caregiver_name)
+);
+
+IF OBJECT_ID('SchedulingEvents') IS NULL
+CREATE TABLE SchedulingEvents (
+    Event_offset bigint NOT NULL IDENTITY(1,1),
+    Event_type varchar(32) NOT NULL,
+    Payload varchar(1024) NOT NULL,
+    Created datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (Event_offset)
+);
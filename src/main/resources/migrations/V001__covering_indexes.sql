@@ -0,0 +1,25 @@
+-- Covering indexes for the lookups the scheduler issues besides primary key seeks.
+-- Each index carries the selected columns in INCLUDE so the query never goes back to the base table.
+
+-- show_appointments and the archive's per-user lookups
+CREATE INDEX IX_Appointments_patient_name ON Appointments (patient_name, app_time)
+    INCLUDE (vaccine_name, caregiver_name, Site);
+
+CREATE INDEX IX_Appointments_caregiver_name ON Appointments (caregiver_name, app_time)
+    INCLUDE (vaccine_name, patient_name, Site);
+
+-- report appointments and the archiving scan
+CREATE INDEX IX_Appointments_app_time ON Appointments (app_time)
+    INCLUDE (vaccine_name, caregiver_name, patient_name, Site);
+
+-- per-caregiver availability; the primary key (Time, Username) only serves lookups by date
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time)
+    INCLUDE (Site);
+
+-- who is free on a date with the calendar store; the primary key leads with Username
+CREATE INDEX IX_AvailabilityCalendars_Year ON AvailabilityCalendars (Year, Username)
+    INCLUDE (Site, W0, W1, W2, W3, W4, W5);
+
+-- forecast reads one vaccine's usage over a date range
+CREATE INDEX IX_DailyVaccineUsage_Vaccine_name ON DailyVaccineUsage (Vaccine_name, Day)
+    INCLUDE (Doses);
@@ -0,0 +1,2 @@
+-- Where each caregiver works, in WGS84 degrees; NULL until the caregiver sets it with set_location.
+ALTER TABLE Caregivers ADD Latitude float NULL, Longitude float NULL;
@@ -0,0 +1,9 @@
+-- Commit-safe positions for the SchedulingEvents feed.
+-- Event_offset is an identity handed out at insert, so a transaction that commits late can land an offset
+-- below one a reader has already passed. Row_version is stamped from the database-wide rowversion counter,
+-- and MIN_ACTIVE_ROWVERSION() is the lowest value still held by an open transaction: every event below it
+-- is final, so a reader that stops there never has a lower position appear behind it.
+ALTER TABLE SchedulingEvents ADD Row_version rowversion NOT NULL;
+
+CREATE UNIQUE INDEX IX_SchedulingEvents_Row_version ON SchedulingEvents (Row_version)
+    INCLUDE (Event_offset, Event_type, Payload, Created);
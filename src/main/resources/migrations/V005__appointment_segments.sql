@@ -0,0 +1,17 @@
+-- Archived appointments, one compressed columnar segment per row (see scheduler.archive.AppointmentSegment).
+-- They live in the database rather than on the archiving host, so every process reads the same archive and
+-- a run moves rows into segments in one transaction.
+CREATE TABLE AppointmentSegments (
+    Segment_id int NOT NULL IDENTITY(1,1),
+    First_day date NOT NULL,
+    Last_day date NOT NULL,
+    Row_count int NOT NULL,
+    Name_filter varbinary(max) NOT NULL,
+    Data varbinary(max) NOT NULL,
+    Created datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (Segment_id)
+);
+
+-- lookups read the headers of the segments overlapping a date range, never the data of the others
+CREATE INDEX IX_AppointmentSegments_Last_day ON AppointmentSegments (Last_day)
+    INCLUDE (First_day, Row_count, Name_filter);
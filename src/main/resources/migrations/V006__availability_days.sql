@@ -0,0 +1,23 @@
+-- "Who is free on D" for the calendar store, indexed by day.
+-- A bit test on an AvailabilityCalendars word cannot seek, so every caregiver-year row of the year was
+-- scanned. AvailabilityDays holds the same bits transposed: one row per day per block of 63 caregivers,
+-- where bit (Caregivers.Id % 63) of Bits is set when that caregiver is free, and it is kept in step with
+-- the calendars by AvailabilityCalendar.add and remove. 63 rather than 64 keeps every mask positive.
+CREATE TABLE AvailabilityDays (
+    Day date,
+    Block int,
+    Bits bigint NOT NULL DEFAULT 0,
+    PRIMARY KEY (Day, Block)
+);
+
+-- fill it from the calendars that already exist; bit 63 of a word is its sign
+INSERT INTO AvailabilityDays (Day, Block, Bits)
+SELECT DATEADD(day, n.i, DATEFROMPARTS(a.Year, 1, 1)), c.Id / 63, SUM(POWER(CAST(2 AS bigint), c.Id % 63))
+FROM AvailabilityCalendars a
+    JOIN Caregivers c ON c.Username = a.Username
+    CROSS JOIN (SELECT TOP 366 ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) - 1 AS i FROM sys.all_columns) n
+    CROSS APPLY (SELECT CASE n.i / 64 WHEN 0 THEN a.W0 WHEN 1 THEN a.W1 WHEN 2 THEN a.W2 WHEN 3 THEN a.W3
+        WHEN 4 THEN a.W4 ELSE a.W5 END AS W) w
+WHERE CASE WHEN n.i % 64 = 63 THEN CASE WHEN w.W < 0 THEN 1 ELSE 0 END
+    ELSE w.W & POWER(CAST(2 AS bigint), n.i % 64) END <> 0
+GROUP BY DATEADD(day, n.i, DATEFROMPARTS(a.Year, 1, 1)), c.Id / 63;
@@ -0,0 +1,287 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+// Bulk patient registration from a "username,password" CSV roster.
+// The file is streamed in chunks; for each chunk the usernames are checked against Patients with one
+// IN query, the passwords are hashed in parallel on a fork-join pool and the rows are inserted as one
+// JDBC batch. Rows that cannot be imported are written to <csv>.rejects as a CSV of line number, username
+// and reason; the username is left empty when the line could not be parsed, so no password is copied.
+// Fields follow RFC 4180, so a password containing a comma or a quote has to be quoted. Usernames are
+// compared case-insensitively, like the Patients primary key.
+public class PatientImporter {
+
+    // SQL Server allows at most 2100 parameters per statement, so the IN list stays well below that
+    private static final int CHUNK_SIZE = 1000;
+    // length of the Patients.Username column
+    private static final int MAX_USERNAME_LENGTH = 255;
+
+    private final Path csv;
+    private final Path rejects;
+    private final ForkJoinPool pool;
+    // usernames seen earlier in the same file, lower-cased
+    private final Set<String> seen = new HashSet<>();
+
+    private int imported = 0;
+    private int rejected = 0;
+
+    public PatientImporter(Path csv) {
+        this(csv, ForkJoinPool.commonPool());
+    }
+
+    public PatientImporter(Path csv, ForkJoinPool pool) {
+        this.csv = csv;
+        this.rejects = csv.resolveSibling(csv.getFileName() + ".rejects");
+        this.pool = pool;
+    }
+
+    // Getters
+    public int getImported() {
+        return imported;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public Path getRejects() {
+        return rejects;
+    }
+
+    public void run() throws IOException, SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(rejects, StandardCharsets.UTF_8)) {
+            con.setAutoCommit(false);
+            List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.trim().equalsIgnoreCase("username,password"))) {
+                    continue;
+                }
+                Row row = parse(lineNumber, line, out);
+                if (row != null) {
+                    chunk.add(row);
+                }
+                if (chunk.size() == CHUNK_SIZE) {
+                    importChunk(con, chunk, out);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                importChunk(con, chunk, out);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when importing patients!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // check the row shape, the password strength and duplicates within the file
+    private Row parse(int lineNumber, String line, BufferedWriter out) throws IOException {
+        List<String> fields = splitCsv(line);
+        if (fields == null) {
+            reject(out, lineNumber, "", "unterminated quoted field");
+            return null;
+        }
+        // a line without a comma may be a password alone, so only a field followed by another is a username
+        String username = fields.size() >= 2 ? fields.get(0).trim() : "";
+        if (fields.size() != 2 || username.isEmpty()) {
+            reject(out, lineNumber, username, "expected <username>,<password>");
+            return null;
+        }
+        if (username.length() > MAX_USERNAME_LENGTH) {
+            reject(out, lineNumber, username, "username is longer than " + MAX_USERNAME_LENGTH + " characters");
+            return null;
+        }
+        String password = fields.get(1);
+        if (!Scheduler.strongPassword(password)) {
+            reject(out, lineNumber, username, "password is too weak");
+            return null;
+        }
+        if (!seen.add(key(username))) {
+            reject(out, lineNumber, username, "duplicate username in file");
+            return null;
+        }
+        return new Row(lineNumber, username, password);
+    }
+
+    private void importChunk(Connection con, List<Row> chunk, BufferedWriter out)
+            throws SQLException, IOException {
+        Set<String> existing = existingUsernames(con, chunk);
+        List<Row> accepted = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            if (existing.contains(key(row.username))) {
+                reject(out, row.lineNumber, row.username, "username taken");
+            } else {
+                accepted.add(row);
+            }
+        }
+        // PBKDF2 dominates the import, spread it over the pool
+        try {
+            pool.submit(() -> accepted.parallelStream().forEach(Row::hash)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing passwords!");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error occurred when hashing passwords!", e.getCause());
+        }
+
+        PreparedStatement statement = con.prepareStatement(Patient.INSERT_PATIENT);
+        for (Row row : accepted) {
+            statement.setString(1, row.username);
+            statement.setBytes(2, row.salt);
+            statement.setBytes(3, row.hash);
+            statement.addBatch();
+        }
+        try {
+            statement.executeBatch();
+            con.commit();
+            imported += accepted.size();
+        } catch (BatchUpdateException e) {
+            // e.g. a username registered between the check and the insert; keep the rest of the chunk
+            con.rollback();
+            importRows(con, accepted, out);
+        }
+    }
+
+    // one insert and commit per row, so only the rows that fail are rejected
+    private void importRows(Connection con, List<Row> rows, BufferedWriter out) throws SQLException, IOException {
+        PreparedStatement statement = con.prepareStatement(Patient.INSERT_PATIENT);
+        for (Row row : rows) {
+            statement.setString(1, row.username);
+            statement.setBytes(2, row.salt);
+            statement.setBytes(3, row.hash);
+            try {
+                statement.executeUpdate();
+                con.commit();
+                imported++;
+            } catch (SQLException e) {
+                con.rollback();
+                // 2627: primary key violation; a lost connection (SQLState class 08) fails every row, so it
+                // ends the import, anything else only concerns this row
+                if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                    throw e;
+                }
+                reject(out, row.lineNumber, row.username,
+                        e.getErrorCode() == 2627 ? "username taken" : "rejected by the database: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Set<String> existingUsernames(Connection con, List<Row> chunk) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(Patient.findUsernames(chunk.size()));
+        for (int i = 0; i < chunk.size(); i++) {
+            statement.setString(i + 1, chunk.get(i).username);
+        }
+        ResultSet resultSet = statement.executeQuery();
+        Set<String> existing = new HashSet<>();
+        while (resultSet.next()) {
+            existing.add(key(resultSet.getString("Username")));
+        }
+        return existing;
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    // Splits one CSV record; quoted fields may contain commas and doubled quotes. Returns null if a
+    // quoted field is not closed.
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private void reject(BufferedWriter out, int lineNumber, String username, String reason) throws IOException {
+        out.write(Integer.toString(lineNumber));
+        out.write(',');
+        writeCsvField(out, username);
+        out.write(',');
+        writeCsvField(out, reason);
+        out.newLine();
+        rejected++;
+    }
+
+    // quoted, with quotes doubled, if the value contains a comma, quote or line break
+    private static void writeCsvField(BufferedWriter out, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private static class Row {
+        private final int lineNumber;
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+
+        private Row(int lineNumber, String username, String password) {
+            this.lineNumber = lineNumber;
+            this.username = username;
+            this.password = password;
+        }
+
+        private void hash() {
+            this.salt = Util.generateSalt();
+            this.hash = Util.generateHash(password, salt);
+        }
+    }
+}
@@ -1,15 +1,45 @@
 package scheduler;
 
+import scheduler.archive.AppointmentArchive;
+import scheduler.archive.AppointmentRecord;
 import scheduler.db.ConnectionManager;
+import scheduler.db.NearestAvailability;
+import scheduler.db.SchemaMigrator;
+import scheduler.db.SchedulerSnapshot;
+import scheduler.db.ShardRouter;
+import scheduler.event.EventOutbox;
+import scheduler.event.EventType;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.report.DoseForecaster;
+import scheduler.report.Renderer;
+import scheduler.report.Report;
+import scheduler.report.UsageRollup;
+import scheduler.service.AsyncSchedulerService;
+import scheduler.util.AdmissionController;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,76 +51,258 @@ public class Scheduler {
     private static Caregiver currentCaregiver = null;
     private static Patient currentPatient = null;
 
+    // rolling per-vaccine demand, caught up from the usage rollup as days complete
+    private static final DoseForecaster forecaster = new DoseForecaster();
+    private static final int LOW_STOCK_HORIZON_DAYS = 7;
+
+    // rate and concurrency limits checked before any command is dispatched
+    private static final AdmissionController admissionController = AdmissionController.defaults();
+    // per-user limits key requests made before logging in by this session
+    private static final String SESSION_ID = "session:" + UUID.randomUUID();
+
+    // asynchronous model operations, used to run the lookups of composite commands concurrently
+    private static final AsyncSchedulerService service = new AsyncSchedulerService();
+
+    // current and archived appointments, for the commands that list them
+    private static final AppointmentArchive archive = new AppointmentArchive();
+
+    // connection pools of all clinic sites, created on first cross-site query
+    private static ShardRouter shardRouter = null;
+
+    // located caregivers and their free days for find_nearest, reloaded once older than NEAREST_MAX_AGE_MILLIS
+    private static NearestAvailability nearest = null;
+    private static final long NEAREST_MAX_AGE_MILLIS = 60_000L;
+
+    // in-memory copy of availability and stock that answers search_caregiver_schedule, only kept when the
+    // SnapshotPath environment variable is set
+    private static SchedulerSnapshot snapshot = null;
+
+    // everything a command prints goes through the renderer into one buffered writer, flushed once per command
+    private static final PrintWriter console = Renderer.console();
+    private static Renderer out = Renderer.fromEnvironment(console);
+
     public static void main(String[] args) throws SQLException {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");
-        System.out.println("> reserve <date> <vaccine>");
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");
-        System.out.println("> logout");
-        System.out.println("> quit");
-        System.out.println();
+        // the commands read tables and columns that only the migrations add
+        migrateSchema();
+
+        // load the latest snapshot (if configured) before accepting commands
+        String snapshotPath = System.getenv("SnapshotPath");
+        if (snapshotPath != null) {
+            startSnapshots(Paths.get(snapshotPath));
+        }
+
+        // printing greetings text, for people only
+        if (out.isInteractive()) {
+            printGreeting();
+        }
 
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
-            System.out.print("> ");
-            String response = "";
+            out.prompt();
+            // the previous command's output and the prompt go out together
+            out.flush();
+            String response = null;
             try {
                 response = r.readLine();
             } catch (IOException e) {
-                System.out.println("Please try again!");
+                out.message("Please try again!");
+                continue;
+            }
+            // end of input quits, as scripts piping commands in do not always end with quit
+            if (response == null) {
+                out.flush();
+                return;
             }
             // split the user input by spaces
             String[] tokens = response.split(" ");
             // check if input exists
             if (tokens.length == 0) {
-                System.out.println("Please try again!");
+                out.message("Please try again!");
                 continue;
             }
             // determine which operation to perform
             String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
-                return;
+            // shed the request if its command is over its rate or concurrency limits
+            AdmissionController.Admission admission = admissionController.tryAdmit(operation, requestUser());
+            if (!admission.isAdmitted()) {
+                out.message("The system is busy, please try again in " + admission.getRetryAfterSeconds() +
+                        " seconds.");
+                continue;
+            }
+            try {
+                if (!dispatch(tokens)) {
+                    return;
+                }
+            } finally {
+                admission.release();
+                // show what the command printed, also when it failed
+                out.flush();
+            }
+        }
+    }
+
+    // Applies the pending schema migrations from MigrationsPath, or src/main/resources/migrations when it is
+    // not set; exits if they cannot be read or applied, as the commands would fail on the old schema
+    private static void migrateSchema() {
+        String path = System.getenv("MigrationsPath");
+        Path directory = path == null ? SchemaMigrator.DEFAULT_DIRECTORY : Paths.get(path);
+        try {
+            for (SchemaMigrator.Migration migration : new SchemaMigrator(directory).migrate()) {
+                out.message("Applied schema migration " + migration.getName());
+            }
+        } catch (IOException e) {
+            out.message("Cannot read the schema migrations in " + directory.toAbsolutePath() +
+                    ", run from the project root or set MigrationsPath!");
+            out.flush();
+            System.exit(1);
+        } catch (SQLException e) {
+            out.message("Error occurred when migrating the database schema, see the error above!");
+            out.flush();
+            System.exit(1);
+        }
+    }
+
+    private static void printGreeting() {
+        out.message("");
+        out.message("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.message("*** Please enter one of the following commands ***");
+        out.message("> create_patient <username> <password>");
+        out.message("> create_caregiver <username> <password>");
+        out.message("> import_patients <csv>");
+        out.message("> login_patient <username> <password>");
+        out.message("> login_caregiver <username> <password>");
+        out.message("> search_caregiver_schedule <date> [to_date]");
+        out.message("> search_all_sites <date>");
+        out.message("> find_nearest <latitude> <longitude> <from_date> [radius_km]");
+        out.message("> reserve <date> <vaccine>");
+        out.message("> reserve_series <date> <vaccine>");
+        out.message("> upload_availability <date>");
+        out.message("> set_location <latitude> <longitude>");
+        out.message("> cancel <appointment_id>");
+        out.message("> add_doses <vaccine> <number> [interval_days]");
+        out.message("> show_appointments");
+        out.message("> report <doses|load|utilisation|appointments> <from> <to> [csv]");
+        out.message("> forecast <vaccine> <days>");
+        out.message("> logout");
+        out.message("> format <text|jsonl|csv>");
+        out.message("> quit");
+        out.message("");
+    }
+
+    // Runs one command, returns false when the user quits
+    private static boolean dispatch(String[] tokens) throws SQLException {
+        String operation = tokens[0];
+        if (operation.equals("create_patient")) {
+            createPatient(tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(tokens);
+        } else if (operation.equals("import_patients")) {
+            importPatients(tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(tokens);
+        } else if (operation.equals("search_all_sites")) {
+            searchAllSites(tokens);
+        } else if (operation.equals("find_nearest")) {
+            findNearest(tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(tokens);
+        } else if (operation.equals("reserve_series")) {
+            reserveSeries(tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(tokens);
+        } else if (operation.equals("set_location")) {
+            setLocation(tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(tokens);
+        } else if (operation.equals("forecast")) {
+            forecast(tokens);
+        } else if (operation.equals("report")) {
+            report(tokens);
+        } else if (operation.equals("format")) {
+            format(tokens);
+        } else if (operation.equals("logout")) {
+            logout(tokens);
+        } else if (operation.equals("quit")) {
+            out.message("Bye!");
+            return false;
+        } else {
+            out.message("Invalid operation name!");
+        }
+        return true;
+    }
+
+    // the key a request is limited by: whoever is logged in, otherwise this session. login/create are not
+    // keyed by the username they name, so nobody can lock an account out by guessing its password
+    private static String requestUser() {
+        if (currentPatient != null) {
+            return currentPatient.getUsername();
+        }
+        if (currentCaregiver != null) {
+            return currentCaregiver.getUsername();
+        }
+        return SESSION_ID;
+    }
+
+    // Loads the snapshot from disk and catches up the delta, or captures a fresh one if there is none yet,
+    // then rewrites it periodically in the background
+    private static void startSnapshots(Path path) {
+        long start = System.nanoTime();
+        try {
+            if (Files.exists(path)) {
+                try {
+                    snapshot = SchedulerSnapshot.readFrom(path);
+                } catch (IOException e) {
+                    // written by an older version, capture a new one instead
+                    snapshot = null;
+                }
+            }
+            if (snapshot != null) {
+                snapshot.catchUp();
             } else {
-                System.out.println("Invalid operation name!");
+                snapshot = SchedulerSnapshot.capture();
+                snapshot.writeTo(path);
             }
+        } catch (IOException | SQLException e) {
+            out.message("Error occurred when loading snapshot, continuing without it");
+            e.printStackTrace();
+            snapshot = null;
+            return;
+        }
+        out.message("Loaded " + snapshot + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        long interval = 10;
+        String configured = System.getenv("SnapshotIntervalMinutes");
+        if (configured != null) {
+            interval = Long.parseLong(configured);
         }
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot.catchUp();
+                snapshot.writeTo(path);
+            } catch (IOException | SQLException e) {
+                // runs in the background, so not through the session's renderer
+                System.err.println("Error occurred when writing snapshot");
+                e.printStackTrace();
+            }
+        }, interval, interval, TimeUnit.MINUTES);
     }
+
     // method for determining if password is strong
-    private static boolean strongPassword (String password) {
+    static boolean strongPassword (String password) {
         String regex = "^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=.*[!@#&()–[{}]:;',?/*~$^+=<>]).{8,20}";
         Matcher matcher = Pattern.compile(regex).matcher(password);
         return matcher.matches();
@@ -100,23 +312,23 @@ public class Scheduler {
         // create_patient <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
         if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+            out.message("Username taken, try again!");
             return;
         }
         // check 3: check if the password created is strong
         if (!strongPassword(password)) {
-            System.out.println("Password is too weak, please follow the following guidelines when creating password!");
-            System.out.println("At least 8 characters.");
-            System.out.println("A mixture of both uppercase and lowercase letters.");
-            System.out.println("A mixture of letters and numbers.");
-            System.out.println("Inclusion of at least one special character, from “!”, “@”, “#”, “?”.");
+            out.message("Password is too weak, please follow the following guidelines when creating password!");
+            out.message("At least 8 characters.");
+            out.message("A mixture of both uppercase and lowercase letters.");
+            out.message("A mixture of letters and numbers.");
+            out.message("Inclusion of at least one special character, from “!”, “@”, “#”, “?”.");
             return;
         }
 
@@ -127,26 +339,25 @@ public class Scheduler {
             currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
             // save to patient information to our database
             currentPatient.saveToDB();
-            System.out.println(" *** Patient account created successfully *** ");
+            out.message(" *** Patient account created successfully *** ");
         } catch (SQLException e) {
-            System.out.println("Create failed");
+            out.message("Create failed");
             e.printStackTrace();
         }
     }
 
     private static boolean usernameExistsPatient(String username) {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
+            Connection con = cm.createConnection();
+            PreparedStatement statement = con.prepareStatement(Patient.FIND_USERNAME);
             statement.setString(1, username);
             ResultSet resultSet = statement.executeQuery();
             // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
             return resultSet.isBeforeFirst();
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.message("Error occurred when checking username");
             e.printStackTrace();
         } finally {
             cm.closeConnection();
@@ -158,23 +369,23 @@ public class Scheduler {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
         if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+            out.message("Username taken, try again!");
             return;
         }
         // check 3: check if the password created is strong
         if (!strongPassword(password)) {
-            System.out.println("Password is too weak, please follow the following guidelines when creating password!");
-            System.out.println("At least 8 characters.");
-            System.out.println("A mixture of both uppercase and lowercase letters.");
-            System.out.println("A mixture of letters and numbers.");
-            System.out.println("Inclusion of at least one special character, from “!”, “@”, “#”, “?”.");
+            out.message("Password is too weak, please follow the following guidelines when creating password!");
+            out.message("At least 8 characters.");
+            out.message("A mixture of both uppercase and lowercase letters.");
+            out.message("A mixture of letters and numbers.");
+            out.message("Inclusion of at least one special character, from “!”, “@”, “#”, “?”.");
             return;
         }
         byte[] salt = Util.generateSalt();
@@ -184,26 +395,25 @@ public class Scheduler {
             currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
             // save to caregiver information to our database
             currentCaregiver.saveToDB();
-            System.out.println(" *** Caregiver account created successfully *** ");
+            out.message(" *** Caregiver account created successfully *** ");
         } catch (SQLException e) {
-            System.out.println("Create failed");
+            out.message("Create failed");
             e.printStackTrace();
         }
     }
 
     private static boolean usernameExistsCaregiver(String username) {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
+            Connection con = cm.createConnection();
+            PreparedStatement statement = con.prepareStatement(Caregiver.FIND_USERNAME);
             statement.setString(1, username);
             ResultSet resultSet = statement.executeQuery();
             // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
             return resultSet.isBeforeFirst();
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.message("Error occurred when checking username");
             e.printStackTrace();
         } finally {
             cm.closeConnection();
@@ -211,16 +421,49 @@ public class Scheduler {
         return true;
     }
 
+    private static void importPatients(String[] tokens) {
+        // import_patients <csv>
+        // check 1: only caregivers can register patients in bulk
+        if (currentCaregiver == null) {
+            out.message("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            out.message("Please try again!");
+            return;
+        }
+        Path csv = Paths.get(tokens[1]);
+        if (!Files.isReadable(csv)) {
+            out.message("Cannot read " + csv + ", please try again!");
+            return;
+        }
+        PatientImporter importer = new PatientImporter(csv);
+        long start = System.nanoTime();
+        try {
+            importer.run();
+        } catch (IOException | SQLException | IllegalStateException e) {
+            // IllegalStateException: hashing the passwords failed or was interrupted
+            out.message("Import failed");
+            e.printStackTrace();
+        }
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+        int rows = importer.getImported() + importer.getRejected();
+        out.message("Imported " + importer.getImported() + " patients, rejected " + importer.getRejected() +
+                " (see " + importer.getRejects() + ")");
+        out.message(String.format("%.1f rows per second", rows / seconds));
+    }
+
     private static void loginPatient(String[] tokens) {
         // login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
+            out.message("Already logged-in!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
             return;
         }
         String username = tokens[1];
@@ -230,14 +473,14 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
+            out.message("Error occurred when logging in");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
         } else {
-            System.out.println("Patient logged in as: " + username);
+            out.message("Patient logged in as: " + username);
             currentPatient = patient;
         }
     }
@@ -246,12 +489,12 @@ public class Scheduler {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
+            out.message("Already logged-in!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
             return;
         }
         String username = tokens[1];
@@ -261,78 +504,224 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
+            out.message("Error occurred when logging in");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
         } else {
-            System.out.println("Caregiver logged in as: " + username);
+            out.message("Caregiver logged in as: " + username);
             currentCaregiver = caregiver;
         }
     }
 
     private static void searchCaregiverSchedule(String[] tokens) throws SQLException {
+        // search_caregiver_schedule <date> [to_date]
         // check 1: check to see if user has logged in or not
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+            out.message("Please login first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        // check 2: the length for tokens need to be 2, or 3 to search a range of dates
+        if (tokens.length != 2 && tokens.length != 3) {
+            out.message("Please try again!");
             return;
         }
         // check 3: date should be correct format
-        Date time = null;
+        Date time;
+        Date to;
         try {
             time = Date.valueOf(tokens[1]);
-
+            to = tokens.length == 3 ? Date.valueOf(tokens[2]) : null;
         } catch (IllegalArgumentException e) {
-            System.err.println("Error while entering date! The format should be YYYY-MM-DD.");
-            e.printStackTrace();
+            out.message("Error while entering date! The format should be YYYY-MM-DD.");
+            return;
         }
         // output consists of username of caregivers and vaccines available for the specific date
+        if (snapshot != null) {
+            searchSnapshot(time, to);
+            return;
+        }
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String caregiverAvailability = "SELECT Username FROM Availabilities WHERE Time = ?";
-        String vaccineAvailability = "SELECT Name, Doses FROM Vaccines";
         try {
-            PreparedStatement availability = con.prepareStatement(caregiverAvailability);
-            PreparedStatement vaccine = con.prepareStatement(vaccineAvailability);
-            availability.setDate(1, time);
-            ResultSet rsAvailability = availability.executeQuery();
-            ResultSet rsVaccine = vaccine.executeQuery();
-            System.out.println("available caregivers:");
-            while (rsAvailability.next()) {
-                String username = rsAvailability.getString("Username");
-                System.out.print("|" + username);
+            if (to == null) {
+                // rows go straight from the result set to the output
+                ResultSet rsAvailability = Availability.prepareFreeOn(con, time, false).executeQuery();
+                out.begin("available caregivers", "caregiver", "site");
+                while (rsAvailability.next()) {
+                    out.startRow();
+                    out.cell(rsAvailability.getString("Username"));
+                    out.cell(rsAvailability.getString("Site"));
+                    out.endRow();
+                }
+                out.end();
+            } else {
+                out.begin("available caregivers", "date", "caregiver", "site");
+                for (Availability availability : Availability.freeBetween(con, time, to)) {
+                    out.startRow();
+                    out.cell(availability.getTime());
+                    out.cell(availability.getUsername());
+                    out.cell(availability.getSite());
+                    out.endRow();
+                }
+                out.end();
             }
-            System.out.println("available vaccines & doses:");
+            ResultSet rsVaccine = con.prepareStatement(Vaccine.GET_ALL).executeQuery();
+            out.begin("available vaccines & doses", "vaccine", "doses");
             while (rsVaccine.next()) {
-                String name = rsVaccine.getString("Name");
-                int doses = rsVaccine.getInt("Doses");
-                System.out.println("vaccine name: " + name + " available doses: " + doses);
+                out.startRow();
+                out.cell(rsVaccine.getString("Name"));
+                out.cell(rsVaccine.getInt("Doses"));
+                out.endRow();
             }
+            out.end();
         } catch (SQLException e) {
-            throw new SQLException();
+            throw new SQLException(e);
         } finally {
             cm.closeConnection();
         }
     }
+
+    // same output as the database path, answered from the snapshot after applying the latest events
+    private static void searchSnapshot(Date time, Date to) throws SQLException {
+        snapshot.catchUp();
+        if (to == null) {
+            out.begin("available caregivers", "caregiver", "site");
+            for (Availability availability : snapshot.freeBetween(time, time)) {
+                out.startRow();
+                out.cell(availability.getUsername());
+                out.cell(availability.getSite());
+                out.endRow();
+            }
+        } else {
+            out.begin("available caregivers", "date", "caregiver", "site");
+            for (Availability availability : snapshot.freeBetween(time, to)) {
+                out.startRow();
+                out.cell(availability.getTime());
+                out.cell(availability.getUsername());
+                out.cell(availability.getSite());
+                out.endRow();
+            }
+        }
+        out.end();
+        out.begin("available vaccines & doses", "vaccine", "doses");
+        for (Map.Entry<String, Integer> vaccine : snapshot.getDoses().entrySet()) {
+            out.startRow();
+            out.cell(vaccine.getKey());
+            out.cell(vaccine.getValue());
+            out.endRow();
+        }
+        out.end();
+    }
+
+    private static void searchAllSites(String[] tokens) throws SQLException {
+        // search_all_sites <date>
+        // check 1: check to see if user has logged in or not
+        if (currentCaregiver == null && currentPatient == null) {
+            out.message("Please login first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            out.message("Please try again!");
+            return;
+        }
+        Date time;
+        try {
+            time = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.message("Error while entering date! The format should be YYYY-MM-DD.");
+            return;
+        }
+        // one query per site, run in parallel
+        if (shardRouter == null) {
+            shardRouter = ShardRouter.fromEnvironment();
+        }
+        List<ShardRouter.SiteAvailability> availabilities = shardRouter.findAvailability(time);
+        if (availabilities.isEmpty()) {
+            out.message("No caregiver is available on " + time + " at any site.");
+            return;
+        }
+        out.begin("available caregivers", "site", "caregiver");
+        for (ShardRouter.SiteAvailability availability : availabilities) {
+            out.startRow();
+            out.cell(availability.getSite());
+            out.cell(availability.getUsername());
+            out.endRow();
+        }
+        out.end();
+    }
+
+    private static void findNearest(String[] tokens) throws SQLException {
+        // find_nearest <latitude> <longitude> <from_date> [radius_km]
+        // check 1: check to see if user has logged in or not
+        if (currentCaregiver == null && currentPatient == null) {
+            out.message("Please login first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 4, or 5 with the search radius
+        if (tokens.length != 4 && tokens.length != 5) {
+            out.message("Please try again!");
+            return;
+        }
+        double latitude;
+        double longitude;
+        double radius;
+        try {
+            latitude = Double.parseDouble(tokens[1]);
+            longitude = Double.parseDouble(tokens[2]);
+            radius = tokens.length == 5 ? Double.parseDouble(tokens[4]) : NearestAvailability.DEFAULT_RADIUS_KM;
+        } catch (NumberFormatException e) {
+            out.message("Please enter the location and radius as numbers!");
+            return;
+        }
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180 || radius <= 0) {
+            out.message("Latitude must be within [-90, 90], longitude within [-180, 180] and the radius positive!");
+            return;
+        }
+        LocalDate from;
+        try {
+            from = Date.valueOf(tokens[3]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            out.message("Error while entering date! The format should be YYYY-MM-DD.");
+            return;
+        }
+        // check 3: answer from the in-memory index, loading it first if it is missing or stale
+        if (nearest == null || nearest.ageMillis() > NEAREST_MAX_AGE_MILLIS) {
+            nearest = NearestAvailability.load();
+        }
+        List<NearestAvailability.Slot> slots = nearest.find(latitude, longitude, from, radius,
+                NearestAvailability.DEFAULT_LIMIT);
+        if (slots.isEmpty()) {
+            out.message("No caregiver within " + radius + " km is available on or after " + from + ".");
+            return;
+        }
+        out.begin("Nearest available caregivers", "date", "caregiver", "site", "distance_km");
+        for (NearestAvailability.Slot slot : slots) {
+            out.startRow();
+            out.cell(slot.getTime());
+            out.cell(slot.getUsername());
+            out.cell(slot.getSite());
+            out.cell(slot.getDistanceKm());
+            out.endRow();
+        }
+        out.end();
+    }
+
     // input: desired date and vaccine name
     // output: caregiver name and appointment ID
     private static void reserve(String[] tokens) throws SQLException {
         // check 1: only patient can perform this operation
         if (currentPatient == null) {
-            System.out.println("Please login as a patient first to reserve your appointment!");
+            out.message("Please login as a patient first to reserve your appointment!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
             return;
         }
         // check 3: date should be correct format
@@ -340,232 +729,465 @@ public class Scheduler {
         try {
             time = Date.valueOf(tokens[1]);
         } catch (IllegalArgumentException e) {
-            System.out.println("Error while entering date! The format should be YYYY-MM-DD.");
+            out.message("Error while entering date! The format should be YYYY-MM-DD.");
+            return;
         }
-        // check 4: if vaccine input exists
+        // check 4: the vaccine must exist and have doses left, and some caregiver must be free on that date;
+        //          both lookups run concurrently before the availability, the dose and the appointment are taken
         String vaccineName = tokens[2];
-        Vaccine vax;
+        Appointment appointment;
         try {
-            vax = new Vaccine.VaccineGetter(vaccineName).get();
-        } catch (SQLException e) {
+            appointment = service.reserve(currentPatient, time, vaccineName).join();
+        } catch (CompletionException e) {
+            Throwable cause = AsyncSchedulerService.cause(e);
+            if (cause instanceof IllegalStateException) {
+                out.message(cause.getMessage());
+                return;
+            }
             e.printStackTrace();
-            throw new SQLException("Error occurred when generating vaccine!");
+            throw new SQLException("Error occurred when reserving appointment!");
         }
-        // check 5: if vaccine doses are still enough
-        if (vax == null) {
-            System.out.println(vaccineName + " is not available at this time. Check availability of other vaccines!");
+        out.message("You have successfully made a reservation with " + appointment.getCaregiverName() + "!");
+        out.message("Your appointment id is " + appointment.getId() + ".");
+        checkStock(vaccineName);
+    }
+    // reserve_series <date> <vaccine>
+    // books both doses of a two-dose vaccine, the second the vaccine's interval after the first
+    private static void reserveSeries(String[] tokens) throws SQLException {
+        // check 1: only patient can perform this operation
+        if (currentPatient == null) {
+            out.message("Please login as a patient first to reserve your appointment!");
             return;
         }
-        // check 6: select random available caregiver username in Availabilities and take that availability away
-        // check 7: generate new appointment id and add new appointment to the appointments table
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String searchCaregiver = "SELECT * FROM Availabilities WHERE Time = ? LIMIT 1";
-        String getMaxID = "SELECT MAX(id) FROM Appointments";
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.message("Please try again!");
+            return;
+        }
+        // check 3: date should be correct format
+        Date time;
         try {
-            PreparedStatement caregiver = con.prepareStatement(searchCaregiver);
-            PreparedStatement app_id = con.prepareStatement(getMaxID);
-            caregiver.setDate(1, time);
-            ResultSet rsCaregiver = caregiver.executeQuery();
-            ResultSet rsAppID = app_id.executeQuery();
-            while (rsCaregiver.next()) {
-                String caregiverUsername = rsCaregiver.getString("Username");
-                System.out.println("You have successfully made a reservation with " + caregiverUsername + "!");
-                int id = 0;
-                if (rsAppID.next()) {
-                    id = rsAppID.getInt(1);
-                }
-                addAppointment(id, caregiverUsername, vaccineName, currentPatient.getUsername(), time);
-                removeAvailability(time, caregiverUsername);
-                System.out.println("Your appointment id is " + id + ".");
+            time = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.message("Error while entering date! The format should be YYYY-MM-DD.");
+            return;
+        }
+        // check 4: the vaccine must be a two-dose vaccine with two doses left, and caregivers must be free on a
+        //          pair of dates the interval apart; both days and both doses are taken in one transaction
+        String vaccineName = tokens[2];
+        List<Appointment> series;
+        try {
+            series = service.reserveSeries(currentPatient, time, vaccineName).join();
+        } catch (CompletionException e) {
+            Throwable cause = AsyncSchedulerService.cause(e);
+            if (cause instanceof IllegalStateException) {
+                out.message(cause.getMessage());
+                return;
             }
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reserving vaccine series!");
+        }
+        out.message("You have successfully reserved both doses of " + vaccineName + "!");
+        for (int i = 0; i < series.size(); i++) {
+            Appointment appointment = series.get(i);
+            out.message("Dose " + (i + 1) + ": " + appointment.getTime() + " with " +
+                    appointment.getCaregiverName() + ", appointment id " + appointment.getId() + ".");
+        }
+        checkStock(vaccineName);
+    }
+    //Helper method for reserve; warns operators when the forecast demand exceeds the remaining stock.
+    //Uses the forecast refreshed in the background, so it adds no database round trip to the booking.
+    private static void checkStock(String vaccineName) {
+        DoseForecaster.Forecast forecast = forecaster.recentForecast(vaccineName, LOW_STOCK_HORIZON_DAYS);
+        if (forecast != null && forecast.isLowStock()) {
+            out.warning(String.format("Low stock alert: %s has %d doses left but about %.0f are expected " +
+                            "to be needed in the next %d days", vaccineName, forecast.getStock(),
+                    forecast.getExpectedDemand(), LOW_STOCK_HORIZON_DAYS));
+        }
+    }
+    private static void uploadAvailability(String[] tokens) {
+        // upload_availability <date>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.message("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            out.message("Please try again!");
+            return;
+        }
+        String date = tokens[1];
+        try {
+            Date d = Date.valueOf(date);
+            currentCaregiver.uploadAvailability(d);
+            out.message("Availability uploaded!");
+        } catch (IllegalArgumentException e) {
+            out.message("Please enter a valid date!");
         } catch (SQLException e) {
+            out.message("Error occurred when uploading availability");
             e.printStackTrace();
-            throw new SQLException("Error occurred when reserving appointment!");
         }
     }
-    //Helper method for reserve; Adds newly reserved appointment to Appointments table
-    private static void addAppointment(int app_id, String caregiver_name, String vaccine_name,
-                               String patient_name, Date app_time) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
-        String addAppointment = "INSERT INTO Appointments VALUES (?, ?, ?, ?, ?)";
+    private static void setLocation(String[] tokens) {
+        // set_location <latitude> <longitude>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.message("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.message("Please try again!");
+            return;
+        }
         try {
-            PreparedStatement statement = con.prepareStatement(addAppointment);
-            statement.setInt(1, app_id);
-            statement.setString(2, caregiver_name);
-            statement.setString(3, vaccine_name);
-            statement.setString(4, patient_name);
-            statement.setDate(5, app_time);
-            statement.executeUpdate();
+            currentCaregiver.updateLocation(Double.parseDouble(tokens[1]), Double.parseDouble(tokens[2]));
+            out.message("Location updated!");
+        } catch (IllegalArgumentException e) {
+            // also covers NumberFormatException
+            out.message("Please enter a valid location! " +
+                    "Latitude must be within [-90, 90] and longitude within [-180, 180].");
         } catch (SQLException e) {
+            out.message("Error occurred when updating location");
             e.printStackTrace();
-            throw new SQLException("Error occurred when adding appointments!");
-        } finally {
-            cm.closeConnection();
         }
     }
-    //Helper method for reserve; Remove newly reserved caregiver from Availability table
-    private static void removeAvailability(Date app_time, String caregiver_name) throws SQLException {
+
+    private static void cancel(String[] tokens) throws SQLException {
+        // cancel <appointment_id>
+        // check 1: check to see if user has logged in or not
+        if (currentCaregiver == null && currentPatient == null) {
+            out.message("Please login first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            out.message("Please try again!");
+            return;
+        }
+        int appId;
+        try {
+            appId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            out.message("Please enter a valid appointment id!");
+            return;
+        }
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String removeCaregiver = "DELETE FROM Availabilities WHERE Username = ? AND TIME = ?";
+        List<Integer> cancelled = new ArrayList<>();
         try {
-            PreparedStatement statement = con.prepareStatement(removeCaregiver);
-            statement.setDate(1, app_time);
-            statement.setString(2, caregiver_name);
-            statement.executeUpdate();
+            con.setAutoCommit(false);
+            PreparedStatement appointment = con.prepareStatement(Appointment.GET_BY_ID);
+            appointment.setInt(1, appId);
+            ResultSet resultSet = appointment.executeQuery();
+            // check 3: the appointment must exist and belong to the current user
+            if (!resultSet.next()) {
+                out.message("Appointment " + appId + " does not exist!");
+                con.rollback();
+                return;
+            }
+            String owner = currentPatient != null ? resultSet.getString("patient_name")
+                    : resultSet.getString("caregiver_name");
+            String username = currentPatient != null ? currentPatient.getUsername() : currentCaregiver.getUsername();
+            if (!username.equalsIgnoreCase(owner)) {
+                out.message("You can only cancel your own appointments!");
+                con.rollback();
+                return;
+            }
+            // check 4: a dose of a series is booked as token/1 and token/2 by reserve_series; cancelling one
+            // cancels the other too, so no patient is left with half a series
+            List<CancelledAppointment> appointments = new ArrayList<>();
+            appointments.add(new CancelledAppointment(resultSet));
+            String token = resultSet.getString("Request_token");
+            if (token != null && (token.endsWith("/1") || token.endsWith("/2"))) {
+                PreparedStatement sibling = con.prepareStatement(Appointment.GET_BY_REQUEST_TOKEN);
+                sibling.setString(1, token.substring(0, token.length() - 1) + (token.endsWith("/1") ? "2" : "1"));
+                resultSet = sibling.executeQuery();
+                if (resultSet.next()) {
+                    appointments.add(new CancelledAppointment(resultSet));
+                }
+            }
+            // check 5: in one transaction, take each appointment off the usage counters (before deleting it,
+            // see UsageRollup.backfill), delete it, give the caregiver their day back and return the dose to stock
+            PreparedStatement delete = con.prepareStatement(Appointment.DELETE_BY_ID);
+            for (CancelledAppointment cancel : appointments) {
+                UsageRollup.record(con, cancel.time, cancel.vaccineName, cancel.caregiverName, -1);
+                delete.setInt(1, cancel.id);
+                delete.executeUpdate();
+                Availability.add(con, cancel.caregiverName, cancel.site, cancel.time);
+                Vaccine.increaseAvailableDoses(con, cancel.vaccineName, 1);
+                EventOutbox.append(con, EventType.APPOINTMENT_CANCELLED, EventOutbox.payload("app_id", cancel.id,
+                        "caregiver", cancel.caregiverName, "vaccine", cancel.vaccineName, "date", cancel.time,
+                        "site", cancel.site));
+                cancelled.add(cancel.id);
+            }
+            con.commit();
         } catch (SQLException e) {
+            con.rollback();
             e.printStackTrace();
-            throw new SQLException("Error occurred when removing caregiver from Availabilities!");
+            throw new SQLException("Error occurred when cancelling appointment!", e);
         } finally {
             cm.closeConnection();
         }
+        if (cancelled.size() > 1) {
+            out.message("Appointment " + appId + " cancelled, together with appointment " + cancelled.get(1) +
+                    " for the other dose of the series.");
+        } else {
+            out.message("Appointment " + appId + " cancelled.");
+        }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
+    // one row being cancelled
+    private static class CancelledAppointment {
+        private final int id;
+        private final String caregiverName;
+        private final String vaccineName;
+        private final Date time;
+        private final String site;
+
+        private CancelledAppointment(ResultSet resultSet) throws SQLException {
+            this.id = resultSet.getInt("app_id");
+            this.caregiverName = resultSet.getString("caregiver_name");
+            this.vaccineName = resultSet.getString("vaccine_name");
+            this.time = resultSet.getDate("app_time");
+            this.site = resultSet.getString("Site");
+        }
+    }
+
+    private static void forecast(String[] tokens) throws SQLException {
+        // forecast <vaccine> <days>
+        // check 1: forecasts are for clinic staff
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+            out.message("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.message("Please try again!");
             return;
         }
-        String date = tokens[1];
+        int days;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
-        } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
-            e.printStackTrace();
+            days = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            out.message("Please enter a valid number of days!");
+            return;
+        }
+        if (days <= 0 || days > DoseForecaster.MAX_DAYS) {
+            out.message("Please enter a number of days between 1 and " + DoseForecaster.MAX_DAYS + "!");
+            return;
         }
+        DoseForecaster.Forecast forecast = forecaster.forecast(tokens[1], days, LocalDate.now());
+        out.begin("Forecast for the next " + days + " days", "vaccine", "days", "doses_per_day", "booked",
+                "expected", "stock", "days_of_cover", "low_stock");
+        out.startRow();
+        out.cell(forecast.getVaccineName());
+        out.cell(forecast.getDays());
+        out.cell(forecast.getRate());
+        out.cell(forecast.getBooked());
+        out.cell(forecast.getExpectedDemand());
+        out.cell(forecast.getStock());
+        // infinite when nothing is used, rendered as missing
+        out.cell(forecast.getDaysOfCover());
+        out.cell(forecast.isLowStock());
+        out.endRow();
+        out.end();
     }
 
-    private static void cancel(String[] tokens) {
-        System.out.println("Sorry, operation currently not available.");
+    private static void report(String[] tokens) throws SQLException {
+        // report <doses|load|utilisation|appointments> <from> <to> [csv]
+        // check 1: reports are for clinic staff
+        if (currentCaregiver == null) {
+            out.message("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 4 or 5 to include all information (with the operation name)
+        if (tokens.length != 4 && tokens.length != 5) {
+            out.message("Please try again!");
+            return;
+        }
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[2]);
+            to = Date.valueOf(tokens[3]);
+        } catch (IllegalArgumentException e) {
+            out.message("Error while entering date! The format should be YYYY-MM-DD.");
+            return;
+        }
+        Report report;
+        if (tokens[1].equals("doses")) {
+            report = UsageRollup.dosesPerDay(from, to);
+        } else if (tokens[1].equals("load")) {
+            report = UsageRollup.caregiverLoadPerDay(from, to);
+        } else if (tokens[1].equals("utilisation")) {
+            report = UsageRollup.caregiverUtilisation(from, to);
+        } else if (tokens[1].equals("appointments")) {
+            report = new Report("Appointments from " + from + " to " + to,
+                    "id", "day", "vaccine", "caregiver", "patient", "archived");
+            for (AppointmentRecord appointment : archive.between(from, to)) {
+                report.addRow(appointment.getId(), appointment.getTime(), appointment.getVaccineName(),
+                        appointment.getCaregiverName(), appointment.getPatientName(), appointment.isArchived());
+            }
+        } else {
+            out.message("Unknown report, expected one of: doses, load, utilisation, appointments");
+            return;
+        }
+        if (tokens.length == 5) {
+            try {
+                report.writeCsv(Paths.get(tokens[4]));
+                out.message("Report written to " + tokens[4]);
+            } catch (IOException e) {
+                out.message("Error occurred when writing report");
+                e.printStackTrace();
+            }
+        } else {
+            report.render(out);
+        }
     }
 
     private static void addDoses(String[] tokens) {
-        // add_doses <vaccine> <number>
+        // add_doses <vaccine> <number> [interval_days]
         // check 1: check if the current logged-in user is a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+            out.message("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
+        // check 2: the length for tokens need to be 3, or 4 with the days between the two doses of a series
+        if (tokens.length != 3 && tokens.length != 4) {
+            out.message("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        int doses;
+        int intervalDays;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+            intervalDays = tokens.length == 4 ? Integer.parseInt(tokens[3]) : -1;
+        } catch (NumberFormatException e) {
+            out.message("Please enter a valid number of doses and days!");
+            return;
+        }
+        // check 3: a series cannot have its second dose before its first
+        if (tokens.length == 4 && intervalDays < 0) {
+            out.message("Please enter a non-negative number of days between the doses!");
+            return;
+        }
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            out.message("Error occurred when adding doses");
             e.printStackTrace();
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
+        // check 4: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
         if (vaccine == null) {
             try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
+                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).intervalDays(Math.max(0, intervalDays)).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                out.message("Error occurred when adding doses");
                 e.printStackTrace();
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
-                vaccine.increaseAvailableDoses(doses);
+                if (doses > 0) {
+                    vaccine.increaseAvailableDoses(doses);
+                }
+                if (intervalDays >= 0) {
+                    vaccine.updateIntervalDays(intervalDays);
+                }
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                out.message("Error occurred when adding doses");
                 e.printStackTrace();
             }
         }
-        System.out.println("Doses updated!");
+        out.message("Doses updated!");
     }
 
     // output scheduled appointments for current user
     private static void showAppointments(String[] tokens) throws SQLException {
         // check if current user is patient or caregiver
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+            out.message("Please login first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 1 to include all information (with the operation name)
         if (tokens.length != 1) {
-            System.out.println("Please try again!");
+            out.message("Please try again!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String getAppointment;
+        // current and archived appointments alike, written out as they are read
+        AppointmentRows rows = new AppointmentRows(currentPatient != null);
         if (currentPatient != null) {
-            getAppointment = "SELECT app_id, vaccine_name, app_time, caregiver_name FROM Appointments WHERE patient_name = ?";
+            archive.forEachForPatient(currentPatient.getUsername(), rows);
         } else {
-            getAppointment = "SELECT app_id, vaccine_name, app_time, patient_name FROM Appointments WHERE caregiver_name = ?";
+            archive.forEachForCaregiver(currentCaregiver.getUsername(), rows);
         }
-        try {
-            PreparedStatement statement = con.prepareStatement(getAppointment);
-            if (currentPatient != null) {
-                statement.setString(1, currentPatient.getUsername());
-            } else {
-                statement.setString(1, currentCaregiver.getUsername());
-            }
-            ResultSet resultSet = statement.executeQuery();
-            // check 4:
-            if (!resultSet.isBeforeFirst()) {
-                System.out.println("You have no appointment");
-                return;
-            }
-            while (resultSet.next()) {
-                int app_id = resultSet.getInt("app_id");
-                String vaccine_name = resultSet.getString("vaccine_name");
-                Date app_time = resultSet.getDate("app_time");
-                String caregiver_name = resultSet.getString("caregiver_name");
-                String patient_name = resultSet.getString("patient_name");
-
-                System.out.println("Appointment details: ");
-                System.out.print("Appointment ID: " + app_id);
-                System.out.print(" Vaccine Scheduled: " + vaccine_name);
-                System.out.print(" Appointment Time: " + app_time);
-                if (currentPatient != null) {
-                    System.out.print(" Caregiver Name: " + caregiver_name);
-                } else {
-                    System.out.print(" Patient Name: " + patient_name);
-                }
+        // check 4:
+        if (rows.count == 0) {
+            out.message("You have no appointment");
+            return;
+        }
+        out.end();
+    }
+
+    // Writes show_appointments rows to the renderer, beginning the table at the first one
+    private static class AppointmentRows implements Consumer<AppointmentRecord> {
+        private final boolean forPatient;
+        private int count = 0;
+
+        private AppointmentRows(boolean forPatient) {
+            this.forPatient = forPatient;
+        }
+
+        @Override
+        public void accept(AppointmentRecord appointment) {
+            if (count++ == 0) {
+                out.begin("Appointment details", "id", "vaccine", "time", forPatient ? "caregiver" : "patient",
+                        "archived");
             }
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            out.startRow();
+            out.cell(appointment.getId());
+            out.cell(appointment.getVaccineName());
+            out.cell(appointment.getTime());
+            out.cell(forPatient ? appointment.getCaregiverName() : appointment.getPatientName());
+            out.cell(appointment.isArchived());
+            out.endRow();
+        }
+    }
+
+    private static void format(String[] tokens) {
+        // format <text|jsonl|csv>
+        // check 1: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            out.message("Please try again!");
+            return;
+        }
+        try {
+            out = Renderer.forFormat(tokens[1], console);
+        } catch (IllegalArgumentException e) {
+            out.message(e.getMessage());
+            return;
         }
+        out.message("Output format set to " + tokens[1]);
     }
 
     private static void logout(String[] tokens) {
         if (currentCaregiver != null) {
             currentCaregiver = null;
-            System.out.println("You have logged out successfully.");
+            out.message("You have logged out successfully.");
         } else if (currentPatient != null) {
             currentPatient = null;
-            System.out.println("You have logged out successfully.");
+            out.message("You have logged out successfully.");
         } else {
-            System.out.println("Error! User already logged out.");
+            out.message("Error! User already logged out.");
         }
     }
 }
@@ -0,0 +1,207 @@
+package scheduler.archive;
+
+import scheduler.db.ConnectionManager;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+// Moves appointments older than a horizon out of the Appointments table into compressed columnar
+// segments in the AppointmentSegments table, one per calendar month per archiving run, and answers
+// appointment queries over both. A run inserts its segments and deletes the rows in one transaction, so
+// every process sees an appointment in exactly one of the two places.
+//
+// Usage: java scheduler.archive.AppointmentArchive [horizon-days]
+// The horizon defaults to ArchiveHorizonDays or 365 days before today.
+public class AppointmentArchive {
+
+    public static final String GET_OLD = "SELECT app_id, vaccine_name, app_time, caregiver_name, patient_name, Site " +
+            "FROM Appointments WHERE app_time < ? ORDER BY app_id";
+    public static final String DELETE_OLD = "DELETE FROM Appointments WHERE app_id = ?";
+    public static final String INSERT_SEGMENT = "INSERT INTO AppointmentSegments " +
+            "(First_day, Last_day, Row_count, Name_filter, Data) VALUES (?, ?, ?, ?, ?)";
+    public static final String GET_CURRENT_BY_PATIENT = "SELECT app_id, vaccine_name, app_time, caregiver_name, " +
+            "patient_name, Site FROM Appointments WHERE patient_name = ? ORDER BY app_time, app_id";
+    public static final String GET_CURRENT_BY_CAREGIVER = "SELECT app_id, vaccine_name, app_time, caregiver_name, " +
+            "patient_name, Site FROM Appointments WHERE caregiver_name = ? ORDER BY app_time, app_id";
+    public static final String GET_CURRENT_BETWEEN = "SELECT app_id, vaccine_name, app_time, caregiver_name, " +
+            "patient_name, Site FROM Appointments WHERE app_time BETWEEN ? AND ?";
+    // headers of the segments overlapping a date range; bodies are fetched one by one for those that match
+    public static final String GET_SEGMENTS = "SELECT Segment_id, First_day, Last_day, Row_count, Name_filter " +
+            "FROM AppointmentSegments WHERE Last_day >= ? AND First_day <= ?";
+    public static final String GET_SEGMENT_DATA = "SELECT Data FROM AppointmentSegments WHERE Segment_id = ?";
+
+    private static final int DEFAULT_HORIZON_DAYS = 365;
+    private static final int DELETE_BATCH_SIZE = 1000;
+    private static final LocalDate MIN_DAY = LocalDate.of(1900, 1, 1);
+    private static final LocalDate MAX_DAY = LocalDate.of(9999, 12, 31);
+
+    public static void main(String[] args) throws Exception {
+        String configured = args.length > 0 ? args[0] : System.getenv("ArchiveHorizonDays");
+        int horizonDays = configured != null ? Integer.parseInt(configured) : DEFAULT_HORIZON_DAYS;
+        LocalDate before = LocalDate.now().minusDays(horizonDays);
+        int archived = new AppointmentArchive().archiveBefore(Date.valueOf(before));
+        System.out.println("Archived " + archived + " appointments before " + before);
+    }
+
+    // Archives every appointment before the given day; returns the number of appointments moved
+    public int archiveBefore(Date before) throws SQLException {
+        ConnectionManager cm = ConnectionManager.forMaintenance();
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            Map<YearMonth, List<AppointmentRecord>> partitions = new TreeMap<>();
+            PreparedStatement statement = con.prepareStatement(GET_OLD);
+            statement.setDate(1, before);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                AppointmentRecord record = read(resultSet);
+                partitions.computeIfAbsent(YearMonth.from(record.getTime().toLocalDate()), k -> new ArrayList<>())
+                        .add(record);
+            }
+            if (partitions.isEmpty()) {
+                con.commit();
+                return 0;
+            }
+            PreparedStatement insert = con.prepareStatement(INSERT_SEGMENT);
+            for (List<AppointmentRecord> records : partitions.values()) {
+                AppointmentSegment segment = AppointmentSegment.build(records);
+                insert.setDate(1, Date.valueOf(segment.getMinDay()));
+                insert.setDate(2, Date.valueOf(segment.getMaxDay()));
+                insert.setInt(3, segment.getRows());
+                insert.setBytes(4, segment.getNameFilter());
+                insert.setBytes(5, segment.getBody());
+                insert.executeUpdate();
+            }
+
+            PreparedStatement delete = con.prepareStatement(DELETE_OLD);
+            int count = 0;
+            for (List<AppointmentRecord> records : partitions.values()) {
+                for (AppointmentRecord record : records) {
+                    delete.setInt(1, record.getId());
+                    delete.addBatch();
+                    if (++count % DELETE_BATCH_SIZE == 0) {
+                        checkDeleted(delete.executeBatch());
+                    }
+                }
+            }
+            checkDeleted(delete.executeBatch());
+            con.commit();
+            return count;
+        } catch (SQLException | IOException e) {
+            con.rollback();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when archiving appointments!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // an appointment cancelled since it was read must not stay in its segment
+    private static void checkDeleted(int[] counts) throws SQLException {
+        for (int count : counts) {
+            if (count == 0) {
+                throw new SQLException("Appointments changed while archiving, please run it again!");
+            }
+        }
+    }
+
+    // Visits every appointment of the patient as it is read: the current ones by date, then the archived ones
+    public void forEachForPatient(String username, Consumer<AppointmentRecord> visitor) throws SQLException {
+        visit(GET_CURRENT_BY_PATIENT, username, MIN_DAY, MAX_DAY, AppointmentSegment.NameColumn.PATIENT, visitor);
+    }
+
+    // Visits every appointment of the caregiver as it is read: the current ones by date, then the archived ones
+    public void forEachForCaregiver(String username, Consumer<AppointmentRecord> visitor) throws SQLException {
+        visit(GET_CURRENT_BY_CAREGIVER, username, MIN_DAY, MAX_DAY, AppointmentSegment.NameColumn.CAREGIVER,
+                visitor);
+    }
+
+    // Every appointment with a date in [from, to], current and archived, ordered by date
+    public List<AppointmentRecord> between(Date from, Date to) throws SQLException {
+        List<AppointmentRecord> records = new ArrayList<>();
+        visit(GET_CURRENT_BETWEEN, null, from.toLocalDate(), to.toLocalDate(), null, records::add);
+        records.sort(Comparator.comparing(AppointmentRecord::getTime).thenComparingInt(AppointmentRecord::getId));
+        return records;
+    }
+
+    // getCurrent selects the current rows, with either the name or the date range as its parameters; only the
+    // ids of the current rows are kept, to skip the archived copies of rows a concurrent run has just moved
+    private void visit(String getCurrent, String name, LocalDate from, LocalDate to,
+                       AppointmentSegment.NameColumn column, Consumer<AppointmentRecord> visitor)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        Set<Integer> currentIds = new HashSet<>();
+        try {
+            PreparedStatement statement = con.prepareStatement(getCurrent);
+            if (name != null) {
+                statement.setString(1, name);
+            } else {
+                statement.setDate(1, Date.valueOf(from));
+                statement.setDate(2, Date.valueOf(to));
+            }
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                AppointmentRecord record = read(resultSet);
+                visitor.accept(record);
+                currentIds.add(record.getId());
+            }
+
+            // an archiving run that commits between the two reads moves rows the first one already returned
+            Map<Integer, AppointmentSegment> candidates = new TreeMap<>();
+            statement = con.prepareStatement(GET_SEGMENTS);
+            statement.setDate(1, Date.valueOf(from));
+            statement.setDate(2, Date.valueOf(to));
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                AppointmentSegment segment = AppointmentSegment.fromHeader(resultSet.getInt("Row_count"),
+                        resultSet.getDate("First_day"), resultSet.getDate("Last_day"),
+                        resultSet.getBytes("Name_filter"));
+                if (column == null || segment.mayContain(column, name)) {
+                    candidates.put(resultSet.getInt("Segment_id"), segment);
+                }
+            }
+            PreparedStatement getData = con.prepareStatement(GET_SEGMENT_DATA);
+            for (Map.Entry<Integer, AppointmentSegment> candidate : candidates.entrySet()) {
+                getData.setInt(1, candidate.getKey());
+                resultSet = getData.executeQuery();
+                if (!resultSet.next()) {
+                    continue;
+                }
+                for (AppointmentRecord record : candidate.getValue().scan(resultSet.getBytes("Data"), from, to,
+                        column, name)) {
+                    if (!currentIds.contains(record.getId())) {
+                        visitor.accept(record);
+                    }
+                }
+            }
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when searching appointments!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static AppointmentRecord read(ResultSet resultSet) throws SQLException {
+        return new AppointmentRecord(resultSet.getInt("app_id"), resultSet.getString("vaccine_name"),
+                resultSet.getDate("app_time"), resultSet.getString("caregiver_name"),
+                resultSet.getString("patient_name"), resultSet.getString("Site"), false);
+    }
+}
@@ -0,0 +1,54 @@
+package scheduler.archive;
+
+import java.sql.Date;
+
+// One appointment row, read either from the Appointments table or from an archived segment
+public class AppointmentRecord {
+    private final int id;
+    private final String vaccineName;
+    private final Date time;
+    private final String caregiverName;
+    private final String patientName;
+    private final String site;
+    private final boolean archived;
+
+    public AppointmentRecord(int id, String vaccineName, Date time, String caregiverName, String patientName,
+                             String site, boolean archived) {
+        this.id = id;
+        this.vaccineName = vaccineName;
+        this.time = time;
+        this.caregiverName = caregiverName;
+        this.patientName = patientName;
+        this.site = site;
+        this.archived = archived;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+}
@@ -0,0 +1,318 @@
+package scheduler.archive;
+
+import scheduler.util.NameDictionary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// One immutable block of archived appointments, stored as a row of AppointmentSegments.
+// The header is kept in plain columns: the row count, the min/max appointment day and a bloom filter
+// over the caregiver and patient names, so a lookup skips segments outside its date range or without
+// its name before fetching the body. The gzip-compressed body holds one dictionary per name column
+// (vaccine, caregiver, patient, site) followed by the columns as int arrays: the id delta to the
+// previous row, the day offset from the min day, and the dictionary codes, -1 for a NULL name.
+class AppointmentSegment {
+
+    private static final int MAGIC = 0x56415243; // "VARC"
+    private static final int FORMAT_VERSION = 2;
+    private static final int NULL_CODE = -1;
+
+    enum NameColumn {
+        CAREGIVER, PATIENT
+    }
+
+    private final int rows;
+    private final int minDay;
+    private final int maxDay;
+    private final NameFilter names;
+    // null for a segment read from its header only
+    private final byte[] body;
+
+    private AppointmentSegment(int rows, int minDay, int maxDay, NameFilter names, byte[] body) {
+        this.rows = rows;
+        this.minDay = minDay;
+        this.maxDay = maxDay;
+        this.names = names;
+        this.body = body;
+    }
+
+    // Getters
+    int getRows() {
+        return rows;
+    }
+
+    LocalDate getMinDay() {
+        return LocalDate.ofEpochDay(minDay);
+    }
+
+    LocalDate getMaxDay() {
+        return LocalDate.ofEpochDay(maxDay);
+    }
+
+    byte[] getNameFilter() {
+        return names.toBytes();
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    boolean overlaps(LocalDate from, LocalDate to) {
+        return from.toEpochDay() <= maxDay && to.toEpochDay() >= minDay;
+    }
+
+    // false if no row of the segment has the name in that column; true may be a false positive
+    boolean mayContain(NameColumn column, String name) {
+        return names.mayContain(column, name);
+    }
+
+    // Encodes the records, sorted by id
+    static AppointmentSegment build(List<AppointmentRecord> records) throws IOException {
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+        for (AppointmentRecord record : records) {
+            int day = (int) record.getTime().toLocalDate().toEpochDay();
+            minDay = Math.min(minDay, day);
+            maxDay = Math.max(maxDay, day);
+        }
+        NameDictionary vaccines = new NameDictionary(16);
+        NameDictionary caregivers = new NameDictionary(records.size());
+        NameDictionary patients = new NameDictionary(records.size());
+        NameDictionary sites = new NameDictionary(4);
+        int[] vaccineCodes = new int[records.size()];
+        int[] caregiverCodes = new int[records.size()];
+        int[] patientCodes = new int[records.size()];
+        int[] siteCodes = new int[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            AppointmentRecord record = records.get(i);
+            vaccineCodes[i] = code(vaccines, record.getVaccineName());
+            caregiverCodes[i] = code(caregivers, record.getCaregiverName());
+            patientCodes[i] = code(patients, record.getPatientName());
+            siteCodes[i] = code(sites, record.getSite());
+        }
+        NameFilter filter = new NameFilter(caregivers.idLimit() + patients.idLimit());
+        for (int code = 0; code < caregivers.idLimit(); code++) {
+            filter.add(NameColumn.CAREGIVER, caregivers.name(code));
+        }
+        for (int code = 0; code < patients.idLimit(); code++) {
+            filter.add(NameColumn.PATIENT, patients.name(code));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.flush();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes, 1 << 16);
+        DataOutputStream body = new DataOutputStream(gzip);
+        writeNames(body, vaccines);
+        writeNames(body, caregivers);
+        writeNames(body, patients);
+        writeNames(body, sites);
+        int previousId = 0;
+        for (AppointmentRecord record : records) {
+            body.writeInt(record.getId() - previousId);
+            previousId = record.getId();
+        }
+        for (AppointmentRecord record : records) {
+            body.writeInt((int) record.getTime().toLocalDate().toEpochDay() - minDay);
+        }
+        writeCodes(body, vaccineCodes);
+        writeCodes(body, caregiverCodes);
+        writeCodes(body, patientCodes);
+        writeCodes(body, siteCodes);
+        body.flush();
+        gzip.finish();
+        return new AppointmentSegment(records.size(), minDay, maxDay, filter, bytes.toByteArray());
+    }
+
+    // A segment known by its header columns; scan() then takes the body fetched separately
+    static AppointmentSegment fromHeader(int rows, Date minDay, Date maxDay, byte[] nameFilter) {
+        return new AppointmentSegment(rows, (int) minDay.toLocalDate().toEpochDay(),
+                (int) maxDay.toLocalDate().toEpochDay(), NameFilter.fromBytes(nameFilter), null);
+    }
+
+    // Records of the body with a day in [from, to] and, if column is not null, the given name in that
+    // column, compared case-insensitively like the Username columns
+    List<AppointmentRecord> scan(byte[] data, LocalDate from, LocalDate to, NameColumn column, String name)
+            throws IOException {
+        List<AppointmentRecord> matches = new ArrayList<>();
+        if (!overlaps(from, to)) {
+            return matches;
+        }
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream header = new DataInputStream(bytes);
+        if (header.readInt() != MAGIC || header.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not an appointment segment!");
+        }
+        DataInputStream body = new DataInputStream(new GZIPInputStream(bytes, 1 << 16));
+        String[] vaccines = readNames(body);
+        String[] caregivers = readNames(body);
+        String[] patients = readNames(body);
+        String[] sites = readNames(body);
+        boolean[] wanted = null;
+        if (column != null) {
+            wanted = matching(column == NameColumn.CAREGIVER ? caregivers : patients, name);
+            if (wanted == null) {
+                // a false positive of the name filter
+                return matches;
+            }
+        }
+        int[] ids = readCodes(body, rows);
+        for (int i = 1; i < rows; i++) {
+            ids[i] += ids[i - 1];
+        }
+        int[] days = readCodes(body, rows);
+        int[] vaccineCodes = readCodes(body, rows);
+        int[] caregiverCodes = readCodes(body, rows);
+        int[] patientCodes = readCodes(body, rows);
+        int[] siteCodes = readCodes(body, rows);
+        int fromOffset = (int) from.toEpochDay() - minDay;
+        int toOffset = (int) to.toEpochDay() - minDay;
+        int[] filter = column == NameColumn.CAREGIVER ? caregiverCodes : patientCodes;
+        for (int i = 0; i < rows; i++) {
+            if (days[i] < fromOffset || days[i] > toOffset
+                    || (wanted != null && (filter[i] == NULL_CODE || !wanted[filter[i]]))) {
+                continue;
+            }
+            matches.add(new AppointmentRecord(ids[i], name(vaccines, vaccineCodes[i]),
+                    Date.valueOf(LocalDate.ofEpochDay(minDay + days[i])), name(caregivers, caregiverCodes[i]),
+                    name(patients, patientCodes[i]), name(sites, siteCodes[i]), true));
+        }
+        return matches;
+    }
+
+    private static int code(NameDictionary names, String name) {
+        return name == null ? NULL_CODE : names.intern(name);
+    }
+
+    private static String name(String[] names, int code) {
+        return code == NULL_CODE ? null : names[code];
+    }
+
+    // dictionary codes are dense from 0, so the names are written in code order
+    private static void writeNames(DataOutputStream out, NameDictionary names) throws IOException {
+        out.writeInt(names.idLimit());
+        for (int code = 0; code < names.idLimit(); code++) {
+            out.writeUTF(names.name(code));
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        String[] names = new String[in.readInt()];
+        for (int code = 0; code < names.length; code++) {
+            names[code] = in.readUTF();
+        }
+        return names;
+    }
+
+    private static void writeCodes(DataOutputStream out, int[] codes) throws IOException {
+        for (int code : codes) {
+            out.writeInt(code);
+        }
+    }
+
+    private static int[] readCodes(DataInputStream in, int count) throws IOException {
+        int[] codes = new int[count];
+        for (int i = 0; i < count; i++) {
+            codes[i] = in.readInt();
+        }
+        return codes;
+    }
+
+    // codes whose name equals the given one ignoring case, or null if there are none
+    private static boolean[] matching(String[] names, String name) {
+        boolean[] wanted = new boolean[names.length];
+        boolean any = false;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                wanted[i] = true;
+                any = true;
+            }
+        }
+        return any ? wanted : null;
+    }
+
+    // Bloom filter over (column, lowercased name) with about 10 bits per name, for a false positive
+    // rate below 1%
+    private static class NameFilter {
+        private static final int BITS_PER_NAME = 10;
+        private static final int HASHES = 7;
+
+        private final BitSet bits;
+        private final int size;
+
+        private NameFilter(int names) {
+            this.size = Math.max(1, (names * BITS_PER_NAME + 63) / 64) * 64;
+            this.bits = new BitSet(size);
+        }
+
+        private NameFilter(BitSet bits, int size) {
+            this.bits = bits;
+            this.size = size;
+        }
+
+        private void add(NameColumn column, String name) {
+            int hash = hash(column, name);
+            int step = step(hash);
+            for (int i = 0; i < HASHES; i++) {
+                bits.set(Math.floorMod(hash + i * step, size));
+            }
+        }
+
+        private boolean mayContain(NameColumn column, String name) {
+            if (name == null) {
+                return true;
+            }
+            int hash = hash(column, name);
+            int step = step(hash);
+            for (int i = 0; i < HASHES; i++) {
+                if (!bits.get(Math.floorMod(hash + i * step, size))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // String.hashCode is specified, so filters written by one JVM read the same in another
+        private static int hash(NameColumn column, String name) {
+            int h = (column.ordinal() + ":" + name.toLowerCase(Locale.ROOT)).hashCode();
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            return h;
+        }
+
+        private static int step(int hash) {
+            int h = hash * 0xc2b2ae35;
+            return (h ^ (h >>> 16)) | 1;
+        }
+
+        private byte[] toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(size / 8);
+            long[] words = bits.toLongArray();
+            for (int i = 0; i < size / 64; i++) {
+                buffer.putLong(i < words.length ? words[i] : 0L);
+            }
+            return buffer.array();
+        }
+
+        private static NameFilter fromBytes(byte[] bytes) {
+            long[] words = new long[bytes.length / 8];
+            ByteBuffer.wrap(bytes).asLongBuffer().get(words);
+            return new NameFilter(BitSet.valueOf(words), words.length * 64);
+        }
+    }
+}
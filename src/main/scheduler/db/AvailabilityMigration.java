@@ -0,0 +1,158 @@
+package scheduler.db;
+
+import scheduler.model.AvailabilityCalendar;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Converts availabilities between the Availabilities table and the AvailabilityCalendars bitsets, with
+// their by-day copy in AvailabilityDays.
+// Both directions merge into what the target already holds (bits are OR-ed in, rows that exist are
+// skipped), so a conversion can be re-run safely. Stop the schedulers or keep AvailabilityStore on the
+// source store while converting, then switch AvailabilityStore and purge the source.
+//
+// Usage: java scheduler.db.AvailabilityMigration <to-calendar|to-table> [purge]
+public class AvailabilityMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private AvailabilityMigration() {
+    }
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equals("purge"))) {
+            System.out.println("Usage: AvailabilityMigration <to-calendar|to-table> [purge]");
+            return;
+        }
+        boolean purge = args.length == 2;
+        if (args[0].equals("to-calendar")) {
+            toCalendars(purge);
+        } else if (args[0].equals("to-table")) {
+            toTable(purge);
+        } else {
+            System.out.println("Unknown direction, expected to-calendar or to-table");
+        }
+    }
+
+    // Folds every Availabilities row into its caregiver-year bitset; purge deletes the rows afterwards
+    public static void toCalendars(boolean purge) throws SQLException {
+        ConnectionManager cm = ConnectionManager.forMaintenance();
+        Connection con = cm.createConnection();
+
+        String getRows = "SELECT Username, Site, Time FROM Availabilities";
+        String mergeCalendar = "MERGE AvailabilityCalendars WITH (HOLDLOCK) AS t " +
+                "USING (SELECT ? AS Username, ? AS Year) AS s " +
+                "ON t.Username = s.Username AND t.Year = s.Year " +
+                "WHEN MATCHED THEN UPDATE SET W0 = t.W0 | ?, W1 = t.W1 | ?, W2 = t.W2 | ?, " +
+                "W3 = t.W3 | ?, W4 = t.W4 | ?, W5 = t.W5 | ? " +
+                "WHEN NOT MATCHED THEN INSERT (Username, Year, Site, W0, W1, W2, W3, W4, W5) " +
+                "VALUES (s.Username, s.Year, ?, ?, ?, ?, ?, ?, ?);";
+        try {
+            con.setAutoCommit(false);
+            // (username, year) -> words, plus the site of the caregiver
+            Map<String, long[]> calendars = new LinkedHashMap<>();
+            Map<String, String> sites = new LinkedHashMap<>();
+            int rows = 0;
+            ResultSet resultSet = con.prepareStatement(getRows).executeQuery();
+            while (resultSet.next()) {
+                String username = resultSet.getString("Username");
+                LocalDate day = resultSet.getDate("Time").toLocalDate();
+                String key = day.getYear() + ":" + username;
+                int index = day.getDayOfYear() - 1;
+                calendars.computeIfAbsent(key, k -> new long[AvailabilityCalendar.WORDS])[index >>> 6] |=
+                        AvailabilityCalendar.mask(index);
+                sites.put(key, resultSet.getString("Site"));
+                rows++;
+            }
+            PreparedStatement statement = con.prepareStatement(mergeCalendar);
+            int count = 0;
+            for (Map.Entry<String, long[]> calendar : calendars.entrySet()) {
+                String key = calendar.getKey();
+                int colon = key.indexOf(':');
+                long[] words = calendar.getValue();
+                statement.setString(1, key.substring(colon + 1));
+                statement.setInt(2, Integer.parseInt(key.substring(0, colon)));
+                for (int w = 0; w < words.length; w++) {
+                    statement.setLong(3 + w, words[w]);
+                    statement.setLong(10 + w, words[w]);
+                }
+                statement.setString(9, sites.get(key));
+                statement.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            // the by-day copy of the bits that "who is free on D" reads
+            con.createStatement().execute(AvailabilityCalendar.REBUILD_DAYS);
+            if (purge) {
+                con.prepareStatement("DELETE FROM Availabilities").executeUpdate();
+            }
+            con.commit();
+            System.out.println("Converted " + rows + " availability rows into " + calendars.size() + " calendars");
+        } catch (SQLException e) {
+            con.rollback();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when converting availabilities to calendars!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Expands every bitset back into Availabilities rows; purge deletes the bitsets afterwards
+    public static void toTable(boolean purge) throws SQLException {
+        ConnectionManager cm = ConnectionManager.forMaintenance();
+        Connection con = cm.createConnection();
+
+        String getCalendars = "SELECT Username, Year, Site, W0, W1, W2, W3, W4, W5 FROM AvailabilityCalendars";
+        String addRow = "INSERT INTO Availabilities (Time, Username, Site) SELECT ?, ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(addRow);
+            int calendars = 0;
+            int rows = 0;
+            ResultSet resultSet = con.prepareStatement(getCalendars).executeQuery();
+            while (resultSet.next()) {
+                String username = resultSet.getString("Username");
+                String site = resultSet.getString("Site");
+                LocalDate first = LocalDate.of(resultSet.getInt("Year"), 1, 1);
+                long[] words = AvailabilityCalendar.readWords(resultSet);
+                for (int w = 0; w < words.length; w++) {
+                    for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                        Date d = Date.valueOf(first.plusDays(w * 64 + Long.numberOfTrailingZeros(bits)));
+                        statement.setDate(1, d);
+                        statement.setString(2, username);
+                        statement.setString(3, site);
+                        statement.setDate(4, d);
+                        statement.setString(5, username);
+                        statement.addBatch();
+                        if (++rows % BATCH_SIZE == 0) {
+                            statement.executeBatch();
+                        }
+                    }
+                }
+                calendars++;
+            }
+            statement.executeBatch();
+            if (purge) {
+                con.prepareStatement("DELETE FROM AvailabilityDays").executeUpdate();
+                con.prepareStatement("DELETE FROM AvailabilityCalendars").executeUpdate();
+            }
+            con.commit();
+            System.out.println("Expanded " + calendars + " calendars into " + rows + " availability rows");
+        } catch (SQLException e) {
+            con.rollback();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when converting calendars to availabilities!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
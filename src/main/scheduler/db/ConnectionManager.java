@@ -1,41 +1,165 @@
 package scheduler.db;
 
+import scheduler.util.CircuitBreaker;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ConnectionManager {
 
+    private static final int CONNECT_TIMEOUT_SECONDS = intSetting("ConnectTimeoutSeconds", 15);
+    private static final int QUERY_TIMEOUT_SECONDS = intSetting("QueryTimeoutSeconds", 30);
+    // migrations, backfills, archiving and store conversions; 0 leaves their statements unlimited
+    private static final int MAINTENANCE_TIMEOUT_SECONDS = intSetting("MaintenanceTimeoutSeconds", 0);
+    // consecutive failed connection attempts (each after its retries) before failing fast
+    private static final int BREAKER_THRESHOLD = 3;
+    private static final long BREAKER_OPEN_MILLIS = 30_000L;
+
+    private static final RetryPolicy connectRetry = RetryPolicy.defaults();
+    // one breaker per database, shared by every ConnectionManager and pool that connects to it
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
     private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+    private final int queryTimeoutSeconds;
 
     private Connection con = null;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
-        }
+        this(defaultUrl(), System.getenv("UserID"), System.getenv("Password"));
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // Connects to any JDBC url, e.g. the database of one site
+    public ConnectionManager(String connectionUrl, String userName, String userPass) {
+        this(connectionUrl, userName, userPass, QUERY_TIMEOUT_SECONDS);
+    }
+
+    private ConnectionManager(String connectionUrl, String userName, String userPass, int queryTimeoutSeconds) {
+        this.connectionUrl = connectionUrl;
+        this.userName = userName;
+        this.userPass = userPass;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        if (connectionUrl.contains("jdbc:sqlserver:")) {
+            try {
+                Class.forName(driverName);
+            } catch (ClassNotFoundException e) {
+                System.out.println(e.toString());
+            }
         }
+    }
+
+    // Connects to the default database for long-running maintenance work, whose statements get
+    // MaintenanceTimeoutSeconds (no limit by default) instead of the interactive query timeout
+    public static ConnectionManager forMaintenance() {
+        return new ConnectionManager(defaultUrl(), System.getenv("UserID"), System.getenv("Password"),
+                MAINTENANCE_TIMEOUT_SECONDS);
+    }
+
+    // JdbcUrl, when set, replaces the Azure Server/DBName pair, e.g. to run against a local SQL Server or LocalDB
+    public static String defaultUrl() {
+        String url = System.getenv("JdbcUrl");
+        return url != null ? url : azureUrl(System.getenv("Server"), System.getenv("DBName"));
+    }
+
+    public static String azureUrl(String server, String dbName) {
+        return "jdbc:sqlserver://" + server + ".database.windows.net:1433;database=" + dbName +
+                ";loginTimeout=" + CONNECT_TIMEOUT_SECONDS;
+    }
+
+    public String getConnectionUrl() {
+        return connectionUrl;
+    }
+
+    public Connection createConnection() throws SQLException {
+        con = open(connectionUrl, userName, userPass, queryTimeoutSeconds);
         return con;
     }
 
     public void closeConnection() {
+        if (this.con == null) {
+            return;
+        }
         try {
             this.con.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    // Opens a connection with the login timeout, retrying transient failures with backoff; fails fast
+    // while the database's circuit breaker is open. Statements of the connection get the query timeout.
+    static Connection open(String url, String user, String pass) throws SQLException {
+        return open(url, user, pass, QUERY_TIMEOUT_SECONDS);
+    }
+
+    private static Connection open(String url, String user, String pass, int queryTimeoutSeconds)
+            throws SQLException {
+        CircuitBreaker breaker = breakers.computeIfAbsent(url, k -> new CircuitBreaker(BREAKER_THRESHOLD,
+                BREAKER_OPEN_MILLIS));
+        long wait = breaker.tryAcquire(System.nanoTime());
+        if (wait > 0) {
+            throw new SQLNonTransientConnectionException("Database is unavailable, please try again in " +
+                    Math.max(1, wait / 1_000_000_000L) + " seconds!");
+        }
+        Connection connection;
+        try {
+            connection = connectRetry.call(() -> DriverManager.getConnection(url, connectProperties(user, pass)));
+        } catch (SQLException e) {
+            if (RetryPolicy.isTransient(e)) {
+                breaker.onFailure(System.nanoTime());
+            } else {
+                // the server answered (e.g. bad credentials), so it is up
+                breaker.onSuccess();
+            }
+            throw e;
+        }
+        breaker.onSuccess();
+        return queryTimeoutSeconds > 0 ? withQueryTimeout(connection, queryTimeoutSeconds) : connection;
+    }
+
+    // the login timeout goes to this connection only; DriverManager.setLoginTimeout would change it for
+    // every driver in the JVM
+    private static Properties connectProperties(String user, String pass) {
+        Properties properties = new Properties();
+        if (user != null) {
+            properties.setProperty("user", user);
+        }
+        if (pass != null) {
+            properties.setProperty("password", pass);
+        }
+        properties.setProperty("loginTimeout", String.valueOf(CONNECT_TIMEOUT_SECONDS));
+        return properties;
+    }
+
+    // sets the query timeout on every statement the connection creates
+    private static Connection withQueryTimeout(Connection connection, int seconds) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (result instanceof Statement) {
+                        ((Statement) result).setQueryTimeout(seconds);
+                    }
+                    return result;
+                });
+    }
+
+    private static int intSetting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
 }
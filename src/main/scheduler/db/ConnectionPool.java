@@ -0,0 +1,120 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Small bounded pool of JDBC connections to one database.
+// Connections are opened lazily up to maxSize and handed back with release(); a borrower waits at most
+// borrowTimeoutMillis for a connection once the pool is exhausted.
+public class ConnectionPool implements AutoCloseable {
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final BlockingQueue<Connection> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String connectionUrl, String userName, String userPass, int maxSize,
+                          long borrowTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive!");
+        }
+        // constructing a ConnectionManager registers the driver for this url
+        new ConnectionManager(connectionUrl, userName, userPass);
+        this.connectionUrl = connectionUrl;
+        this.userName = userName;
+        this.userPass = userPass;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed!");
+        }
+        Connection con = idle.poll();
+        while (con != null) {
+            if (con.isValid(1)) {
+                return con;
+            }
+            discard(con);
+            con = idle.poll();
+        }
+        // open a new connection if the pool still has room
+        while (true) {
+            int current = opened.get();
+            if (current >= maxSize) {
+                break;
+            }
+            if (opened.compareAndSet(current, current + 1)) {
+                try {
+                    return ConnectionManager.open(connectionUrl, userName, userPass);
+                } catch (SQLException e) {
+                    opened.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+        try {
+            con = idle.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection!");
+        }
+        if (con == null) {
+            throw new SQLException("Timed out waiting for a connection to " + connectionUrl);
+        }
+        return con;
+    }
+
+    public void release(Connection con) {
+        if (con == null) {
+            return;
+        }
+        try {
+            if (closed || con.isClosed()) {
+                discard(con);
+                return;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(con);
+            return;
+        }
+        if (!idle.offer(con)) {
+            discard(con);
+        }
+    }
+
+    private void discard(Connection con) {
+        opened.decrementAndGet();
+        try {
+            con.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public String getConnectionUrl() {
+        return connectionUrl;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection con;
+        while ((con = idle.poll()) != null) {
+            discard(con);
+        }
+    }
+}
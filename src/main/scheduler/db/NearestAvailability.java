@@ -0,0 +1,204 @@
+package scheduler.db;
+
+import scheduler.model.Availability;
+import scheduler.util.GeoGrid;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// In-memory index answering "which caregivers near here are free soonest on or after a date".
+// Caregivers that have set a location are put in a GeoGrid; each one also keeps its free days over the
+// next HORIZON_DAYS as a sorted int[] of epoch days. A query visits the grid cells within the radius,
+// binary searches each nearby caregiver's days for the first one on or after the date, and keeps the
+// best `limit` slots ordered by date, then distance, without touching the database.
+//
+// The index is a copy: load() reads it in two queries and callers reload it when it gets old, so it can
+// offer a day that was booked since; reserve checks the day again anyway.
+public class NearestAvailability {
+
+    public static final String GET_LOCATED = "SELECT Username, Site, Latitude, Longitude FROM Caregivers " +
+            "WHERE Latitude IS NOT NULL AND Longitude IS NOT NULL";
+
+    public static final double DEFAULT_RADIUS_KM = 25.0;
+    public static final int DEFAULT_LIMIT = 10;
+    private static final int HORIZON_DAYS = 366;
+    // about 28 km north-south, so a default query touches a handful of cells
+    private static final double CELL_DEGREES = 0.25;
+
+    private final String[] usernames;
+    private final String[] sites;
+    // free epoch days of each caregiver, ascending
+    private final int[][] freeDays;
+    private final GeoGrid grid;
+    private final long loadedNanos;
+
+    private NearestAvailability(String[] usernames, String[] sites, double[] latitudes, double[] longitudes,
+                                int[][] freeDays) {
+        this.usernames = usernames;
+        this.sites = sites;
+        this.freeDays = freeDays;
+        this.grid = new GeoGrid(latitudes, longitudes, CELL_DEGREES);
+        this.loadedNanos = System.nanoTime();
+    }
+
+    public static NearestAvailability load() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try {
+            Map<String, Integer> index = new HashMap<>();
+            List<String> usernames = new ArrayList<>();
+            List<String> sites = new ArrayList<>();
+            List<double[]> locations = new ArrayList<>();
+            PreparedStatement statement = con.prepareStatement(GET_LOCATED);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                index.put(resultSet.getString("Username"), usernames.size());
+                usernames.add(resultSet.getString("Username"));
+                sites.add(resultSet.getString("Site"));
+                locations.add(new double[]{resultSet.getDouble("Latitude"), resultSet.getDouble("Longitude")});
+            }
+            int n = usernames.size();
+            double[] latitudes = new double[n];
+            double[] longitudes = new double[n];
+            for (int i = 0; i < n; i++) {
+                latitudes[i] = locations.get(i)[0];
+                longitudes[i] = locations.get(i)[1];
+            }
+
+            // rows come ordered by date, so every caregiver's days are appended in ascending order
+            int[][] days = new int[n][];
+            int[] counts = new int[n];
+            LocalDate today = LocalDate.now();
+            for (Availability availability : Availability.freeBetween(con, Date.valueOf(today),
+                    Date.valueOf(today.plusDays(HORIZON_DAYS)))) {
+                Integer caregiver = index.get(availability.getUsername());
+                if (caregiver == null) {
+                    continue;
+                }
+                int[] free = days[caregiver];
+                if (free == null) {
+                    free = days[caregiver] = new int[8];
+                } else if (counts[caregiver] == free.length) {
+                    free = days[caregiver] = Arrays.copyOf(free, free.length * 2);
+                }
+                free[counts[caregiver]++] = (int) availability.getTime().toLocalDate().toEpochDay();
+            }
+            for (int i = 0; i < n; i++) {
+                days[i] = days[i] == null ? new int[0] : Arrays.copyOf(days[i], counts[i]);
+            }
+            return new NearestAvailability(usernames.toArray(new String[0]), sites.toArray(new String[0]),
+                    latitudes, longitudes, days);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when loading caregiver locations!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public long ageMillis() {
+        return (System.nanoTime() - loadedNanos) / 1_000_000L;
+    }
+
+    public int size() {
+        return grid.size();
+    }
+
+    // The `limit` soonest free (day, caregiver) pairs on or after from within radiusKm, one per caregiver,
+    // ordered by date and then by distance
+    public List<Slot> find(double latitude, double longitude, LocalDate from, double radiusKm, int limit) {
+        Selection selection = new Selection(limit, (int) from.toEpochDay());
+        grid.forEachWithin(latitude, longitude, radiusKm, selection);
+        List<Slot> slots = new ArrayList<>(selection.size);
+        for (int i = 0; i < selection.size; i++) {
+            int caregiver = selection.caregivers[i];
+            slots.add(new Slot(usernames[caregiver], sites[caregiver],
+                    Date.valueOf(LocalDate.ofEpochDay(selection.days[i])), selection.distances[i]));
+        }
+        return slots;
+    }
+
+    // best `limit` candidates seen so far, kept sorted by (day, distance) with insertion
+    private class Selection implements GeoGrid.Visitor {
+        private final int from;
+        private final int[] caregivers;
+        private final int[] days;
+        private final double[] distances;
+        private int size = 0;
+
+        private Selection(int limit, int from) {
+            this.from = from;
+            this.caregivers = new int[limit];
+            this.days = new int[limit];
+            this.distances = new double[limit];
+        }
+
+        @Override
+        public void visit(int caregiver, double distanceKm) {
+            int[] free = freeDays[caregiver];
+            int at = Arrays.binarySearch(free, from);
+            if (at < 0) {
+                at = -at - 1;
+            }
+            if (at == free.length) {
+                return;
+            }
+            int day = free[at];
+            int i = size;
+            while (i > 0 && (days[i - 1] > day || (days[i - 1] == day && distances[i - 1] > distanceKm))) {
+                i--;
+            }
+            if (i == caregivers.length) {
+                return;
+            }
+            int last = Math.min(size, caregivers.length - 1);
+            System.arraycopy(caregivers, i, caregivers, i + 1, last - i);
+            System.arraycopy(days, i, days, i + 1, last - i);
+            System.arraycopy(distances, i, distances, i + 1, last - i);
+            caregivers[i] = caregiver;
+            days[i] = day;
+            distances[i] = distanceKm;
+            size = Math.min(size + 1, caregivers.length);
+        }
+    }
+
+    public static class Slot {
+        private final String username;
+        private final String site;
+        private final Date time;
+        private final double distanceKm;
+
+        private Slot(String username, String site, Date time, double distanceKm) {
+            this.username = username;
+            this.site = site;
+            this.time = time;
+            this.distanceKm = distanceKm;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public Date getTime() {
+            return time;
+        }
+
+        public double getDistanceKm() {
+            return distanceKm;
+        }
+    }
+}
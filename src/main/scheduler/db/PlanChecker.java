@@ -0,0 +1,590 @@
+package scheduler.db;
+
+import scheduler.archive.AppointmentArchive;
+import scheduler.event.EventFeed;
+import scheduler.event.EventOutbox;
+import scheduler.event.EventType;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.AvailabilityCalendar;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.report.DoseForecaster;
+import scheduler.report.UsageRollup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Checks the plans and latency of the hot queries against a seeded database.
+// Every statement the scheduler issues on a request path is listed below through the constant or factory
+// the issuing class prepares. For each one the checker asks SQL Server for the estimated plan (SHOWPLAN_XML) and
+// fails it if the plan scans a table or an index, unless the query is expected to scan (tiny tables).
+// Read-only queries are then timed, and their median compared with a recorded baseline.
+// Exits with status 1 if any query fails, so it can gate a CI build.
+//
+// Run it against a disposable database (LocalDB or a SQL Server container, through JdbcUrl) that has
+// create.sql and the migrations applied.
+// Usage: java scheduler.db.PlanChecker [seed=<appointments>] [baseline=<file>] [record] [runs=<n>]
+//   seed=<n>        first insert a pc_ dataset with n appointments (skipped if it is already there)
+//   baseline=<file> median latencies to compare with, default plan-baseline.properties
+//   record          write the measured medians to the baseline file instead of comparing
+public class PlanChecker {
+
+    private static final String PREFIX = "pc_";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+    private static final int DAYS = 180;
+    private static final int CAREGIVERS = 1000;
+    private static final int VACCINES = 5;
+    private static final int BATCH_SIZE = 1000;
+
+    // a query fails if its median exceeds baseline * TOLERANCE + SLACK_MILLIS, or MAX_MILLIS outright
+    private static final double TOLERANCE = 1.5;
+    private static final double SLACK_MILLIS = 2.0;
+    private static final double MAX_MILLIS = 50.0;
+    private static final int WARMUP_RUNS = 3;
+
+    private static final Pattern PHYSICAL_OP = Pattern.compile("PhysicalOp=\"([^\"]+)\"");
+    private static final List<String> SCAN_OPS = Arrays.asList("Table Scan", "Clustered Index Scan", "Index Scan");
+
+    public static void main(String[] args) throws IOException, SQLException {
+        int seedAppointments = 0;
+        Path baselinePath = Paths.get("plan-baseline.properties");
+        boolean record = false;
+        int runs = 20;
+        for (String arg : args) {
+            if (arg.equals("record")) {
+                record = true;
+                continue;
+            }
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) {
+                System.out.println("Expected key=value but got " + arg);
+                System.exit(2);
+            }
+            switch (pair[0]) {
+                case "seed":
+                    seedAppointments = Integer.parseInt(pair[1]);
+                    break;
+                case "baseline":
+                    baselinePath = Paths.get(pair[1]);
+                    break;
+                case "runs":
+                    runs = Integer.parseInt(pair[1]);
+                    break;
+                default:
+                    System.out.println("Unknown option: " + pair[0]);
+                    System.exit(2);
+            }
+        }
+
+        if (seedAppointments > 0) {
+            seed(seedAppointments);
+        }
+        Properties baseline = new Properties();
+        if (!record && Files.exists(baselinePath)) {
+            try (InputStream in = Files.newInputStream(baselinePath)) {
+                baseline.load(in);
+            }
+        }
+
+        int failures = 0;
+        Properties measured = new Properties();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            boolean plans = con.getMetaData().getDatabaseProductName().contains("SQL Server");
+            if (!plans) {
+                System.out.println("Warning: plans can only be checked on SQL Server, checking latency only");
+            }
+            System.out.printf("%-32s %-8s %10s %10s  %s%n", "query", "plan", "median ms", "limit ms", "result");
+            for (HotQuery query : hotQueries()) {
+                List<String> problems = new ArrayList<>();
+                String planResult = "-";
+                if (plans) {
+                    List<String> scans = scans(con, query);
+                    planResult = scans.isEmpty() ? "seek" : "scan";
+                    if (!scans.isEmpty() && !query.scanAllowed) {
+                        problems.add("plan has " + String.join(", ", scans));
+                    }
+                }
+                String median = "-";
+                String limit = "-";
+                if (query.readOnly) {
+                    double millis = medianMillis(con, query, runs);
+                    measured.setProperty(query.name, String.format("%.3f", millis));
+                    double allowed = MAX_MILLIS;
+                    String recorded = baseline.getProperty(query.name);
+                    if (recorded != null) {
+                        allowed = Math.min(allowed, Double.parseDouble(recorded) * TOLERANCE + SLACK_MILLIS);
+                    }
+                    median = String.format("%.2f", millis);
+                    limit = String.format("%.2f", allowed);
+                    if (!record && millis > allowed) {
+                        problems.add("median " + median + " ms over " + limit + " ms");
+                    }
+                }
+                failures += problems.isEmpty() ? 0 : 1;
+                System.out.printf("%-32s %-8s %10s %10s  %s%n", query.name, planResult, median, limit,
+                        problems.isEmpty() ? "ok" : "FAIL: " + String.join("; ", problems));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+
+        if (record) {
+            try (OutputStream out = Files.newOutputStream(baselinePath)) {
+                measured.store(out, "Median latency in milliseconds per hot query, written by PlanChecker");
+            }
+            System.out.println("Recorded baseline in " + baselinePath);
+        }
+        if (failures > 0) {
+            System.out.println(failures + " hot quer" + (failures == 1 ? "y" : "ies") + " failed the check");
+            System.exit(1);
+        }
+        System.out.println("All hot queries passed");
+    }
+
+    // The queries on the scheduler's request paths, with representative parameters for the seeded data.
+    // Every entry uses the constant or factory the issuing class prepares, so the SQL checked here is the
+    // SQL that runs; a new request-path statement should be added to this list.
+    private static List<HotQuery> hotQueries() {
+        Date day = Date.valueOf(FIRST_DAY.plusDays(DAYS / 2));
+        Date weekLater = Date.valueOf(FIRST_DAY.plusDays(DAYS / 2 + 7));
+        Date monthLater = Date.valueOf(FIRST_DAY.plusDays(DAYS / 2 + 30));
+        String patient = PREFIX + "p1";
+        String caregiver = PREFIX + "c1";
+        String vaccine = PREFIX + "v1";
+        String token = PREFIX + "no-such-token";
+        String word = AvailabilityCalendar.wordColumn(0);
+
+        List<HotQuery> queries = new ArrayList<>();
+        // Patient / Caregiver login, and the username checks of create_patient / create_caregiver
+        queries.add(HotQuery.read("patients.by_username", Patient.GET_BY_USERNAME, s -> s.setString(1, patient)));
+        queries.add(HotQuery.read("patients.find_username", Patient.FIND_USERNAME, s -> s.setString(1, patient)));
+        queries.add(HotQuery.read("caregivers.by_username", Caregiver.GET_BY_USERNAME,
+                s -> s.setString(1, caregiver)));
+        queries.add(HotQuery.read("caregivers.find_username", Caregiver.FIND_USERNAME,
+                s -> s.setString(1, caregiver)));
+        // PatientImporter checks a chunk of usernames at once
+        queries.add(HotQuery.read("patients.find_usernames", Patient.findUsernames(3), s -> {
+            s.setString(1, patient);
+            s.setString(2, PREFIX + "p2");
+            s.setString(3, PREFIX + "p3");
+        }));
+        queries.add(HotQuery.write("patients.insert", Patient.INSERT_PATIENT, s -> {
+            s.setString(1, PREFIX + "new");
+            s.setBytes(2, new byte[16]);
+            s.setBytes(3, new byte[16]);
+        }));
+        queries.add(HotQuery.write("caregivers.insert", Caregiver.INSERT_CAREGIVER, s -> {
+            s.setString(1, PREFIX + "new");
+            s.setBytes(2, new byte[16]);
+            s.setBytes(3, new byte[16]);
+            s.setString(4, "default");
+        }));
+        queries.add(HotQuery.write("caregivers.update_location", Caregiver.UPDATE_LOCATION, s -> {
+            s.setDouble(1, 0.0);
+            s.setDouble(2, 0.0);
+            s.setString(3, caregiver);
+        }));
+        // NearestAvailability.load reads every located caregiver
+        queries.add(HotQuery.read("caregivers.located", NearestAvailability.GET_LOCATED, s -> {
+        }).allowScan());
+
+        // AppointmentArchive.forPatient / forCaregiver / between (show_appointments, report appointments)
+        queries.add(HotQuery.read("appointments.by_patient", AppointmentArchive.GET_CURRENT_BY_PATIENT,
+                s -> s.setString(1, patient)));
+        queries.add(HotQuery.read("appointments.by_caregiver", AppointmentArchive.GET_CURRENT_BY_CAREGIVER,
+                s -> s.setString(1, caregiver)));
+        queries.add(HotQuery.read("appointments.between", AppointmentArchive.GET_CURRENT_BETWEEN, s -> {
+            s.setDate(1, day);
+            s.setDate(2, weekLater);
+        }));
+        // Appointment.findByRequestToken on reserve, and the sibling dose on cancel
+        queries.add(HotQuery.read("appointments.by_token", Appointment.GET_BY_REQUEST_TOKEN,
+                s -> s.setString(1, token)));
+        queries.add(HotQuery.write("appointments.insert", Appointment.INSERT_APPOINTMENT, s -> {
+            s.setString(1, caregiver);
+            s.setString(2, vaccine);
+            s.setString(3, patient);
+            s.setDate(4, day);
+            s.setString(5, "default");
+            s.setString(6, token);
+        }));
+        // Scheduler.cancel
+        queries.add(HotQuery.read("appointments.by_id", Appointment.GET_BY_ID, s -> s.setInt(1, 1)));
+        queries.add(HotQuery.write("appointments.delete", Appointment.DELETE_BY_ID, s -> s.setInt(1, -1)));
+
+        // Availability with the table store: upload, reserve, search_caregiver_schedule, reserve_series
+        queries.add(HotQuery.write("availability.insert", Availability.INSERT_AVAILABILITY, s -> {
+            s.setDate(1, day);
+            s.setString(2, caregiver);
+            s.setString(3, "default");
+        }));
+        queries.add(HotQuery.write("availability.claim", Availability.DELETE_AVAILABILITY, s -> {
+            s.setString(1, caregiver);
+            s.setDate(2, day);
+        }));
+        queries.add(HotQuery.read("availability.first_free_on", Availability.FIRST_FREE_ON, s -> s.setDate(1, day)));
+        queries.add(HotQuery.read("availability.free_on", Availability.FREE_ON, s -> s.setDate(1, day)));
+        queries.add(HotQuery.read("availability.between", Availability.FREE_BETWEEN, s -> {
+            s.setDate(1, day);
+            s.setDate(2, weekLater);
+        }));
+
+        // AvailabilityCalendar with the calendar store: the word and day bit updates of add and remove,
+        // and the reads behind the same commands
+        queries.add(HotQuery.write("calendar.set_day", AvailabilityCalendar.setDay(word), s -> {
+            s.setString(1, caregiver);
+            s.setInt(2, FIRST_DAY.getYear());
+            s.setLong(3, 1L);
+            s.setString(4, "default");
+            s.setLong(5, 1L);
+        }));
+        queries.add(HotQuery.write("calendar.clear_day", AvailabilityCalendar.clearDay(word), s -> {
+            s.setLong(1, ~1L);
+            s.setString(2, caregiver);
+            s.setInt(3, FIRST_DAY.getYear());
+            s.setLong(4, 1L);
+        }));
+        queries.add(HotQuery.write("calendar.set_day_bit", AvailabilityCalendar.SET_DAY_BIT, s -> {
+            s.setDate(1, day);
+            s.setString(2, caregiver);
+        }));
+        queries.add(HotQuery.write("calendar.clear_day_bit", AvailabilityCalendar.CLEAR_DAY_BIT, s -> {
+            s.setString(1, caregiver);
+            s.setDate(2, day);
+        }));
+        queries.add(HotQuery.read("calendar.first_free_on", AvailabilityCalendar.FIRST_FREE_ON,
+                s -> s.setDate(1, day)));
+        queries.add(HotQuery.read("calendar.free_on", AvailabilityCalendar.FREE_ON, s -> s.setDate(1, day)));
+        queries.add(HotQuery.read("calendar.by_caregiver", AvailabilityCalendar.GET_CALENDAR, s -> {
+            s.setString(1, caregiver);
+            s.setInt(2, FIRST_DAY.getYear());
+        }));
+        queries.add(HotQuery.read("calendar.between", AvailabilityCalendar.CALENDARS_BETWEEN, s -> {
+            s.setInt(1, day.toLocalDate().getYear());
+            s.setInt(2, weekLater.toLocalDate().getYear());
+        }));
+        queries.add(HotQuery.read("calendar.count_between", AvailabilityCalendar.COUNT_CALENDARS_BETWEEN, s -> {
+            s.setInt(1, day.toLocalDate().getYear());
+            s.setInt(2, monthLater.toLocalDate().getYear());
+        }));
+
+        // Vaccine: get, add_doses (optimistic, then relative under contention), set_interval;
+        // the writes are plan only
+        queries.add(HotQuery.read("vaccines.by_name", Vaccine.GET_BY_NAME, s -> s.setString(1, vaccine)));
+        queries.add(HotQuery.read("vaccines.doses", Vaccine.GET_DOSES, s -> s.setString(1, vaccine)));
+        queries.add(HotQuery.write("vaccines.insert", Vaccine.INSERT_VACCINE, s -> {
+            s.setString(1, PREFIX + "new");
+            s.setInt(2, 0);
+            s.setInt(3, 0);
+        }));
+        queries.add(HotQuery.write("vaccines.versioned_update", Vaccine.VERSIONED_UPDATE, s -> {
+            s.setInt(1, 0);
+            s.setString(2, vaccine);
+            s.setInt(3, -1);
+        }));
+        queries.add(HotQuery.write("vaccines.delta_update", Vaccine.DELTA_UPDATE, s -> {
+            s.setInt(1, 0);
+            s.setString(2, vaccine);
+            s.setInt(3, 0);
+        }));
+        queries.add(HotQuery.write("vaccines.update_interval", Vaccine.UPDATE_INTERVAL, s -> {
+            s.setInt(1, 0);
+            s.setString(2, PREFIX + "no-such-vaccine");
+        }));
+        // Scheduler.show_vaccines and the snapshot read the whole (small) table
+        queries.add(HotQuery.read("vaccines.all", Vaccine.GET_ALL, s -> {
+        }).allowScan());
+
+        // UsageRollup counters, updated by reserve and cancel; plan only
+        queries.add(HotQuery.write("usage.update_vaccine", UsageRollup.UPDATE_VACCINE, s -> {
+            s.setDate(1, day);
+            s.setString(2, vaccine);
+            s.setInt(3, 0);
+            s.setInt(4, 0);
+        }));
+        queries.add(HotQuery.write("usage.update_caregiver", UsageRollup.UPDATE_CAREGIVER, s -> {
+            s.setDate(1, day);
+            s.setString(2, caregiver);
+            s.setInt(3, 0);
+            s.setInt(4, 0);
+        }));
+        // DoseForecaster usage history and bookings
+        queries.add(HotQuery.read("usage.by_vaccine", DoseForecaster.GET_USAGE, s -> {
+            s.setString(1, vaccine);
+            s.setDate(2, day);
+            s.setDate(3, monthLater);
+        }));
+        // UsageRollup reports
+        queries.add(HotQuery.read("usage.between", UsageRollup.GET_USAGE, s -> {
+            s.setDate(1, day);
+            s.setDate(2, weekLater);
+        }));
+        queries.add(HotQuery.read("load.between", UsageRollup.GET_LOAD, s -> {
+            s.setDate(1, day);
+            s.setDate(2, weekLater);
+        }));
+        queries.add(HotQuery.read("load.booked", UsageRollup.GET_BOOKED, s -> {
+            s.setDate(1, day);
+            s.setDate(2, monthLater);
+        }));
+        queries.add(HotQuery.read("availability.open_days", UsageRollup.GET_OPEN, s -> {
+            s.setDate(1, day);
+            s.setDate(2, monthLater);
+        }));
+
+        // EventOutbox.append in every writing transaction, EventFeed for the snapshot catch-up
+        queries.add(HotQuery.write("events.insert", EventOutbox.INSERT_EVENT, s -> {
+            s.setString(1, EventType.DOSES_ADJUSTED.name());
+            s.setString(2, "");
+        }));
+        queries.add(HotQuery.read("events.after_position", EventFeed.GET_EVENTS, s -> {
+            s.setInt(1, 100);
+            s.setLong(2, 0L);
+        }));
+        queries.add(HotQuery.read("events.settled_position", EventFeed.GET_SETTLED_POSITION, s -> {
+        }));
+        // SchedulerSnapshot.capture loads whole tables once, by design
+        queries.add(HotQuery.read("snapshot.availabilities", Availability.GET_ALL, s -> {
+        }).allowScan());
+        queries.add(HotQuery.read("snapshot.calendars", AvailabilityCalendar.GET_ALL, s -> {
+        }).allowScan());
+
+        // AppointmentArchive: the archiving run (plan only for its writes) and the segment lookups
+        queries.add(HotQuery.read("archive.old", AppointmentArchive.GET_OLD, s -> s.setDate(1, day)));
+        queries.add(HotQuery.write("archive.delete_old", AppointmentArchive.DELETE_OLD, s -> s.setInt(1, -1)));
+        queries.add(HotQuery.write("archive.insert_segment", AppointmentArchive.INSERT_SEGMENT, s -> {
+            s.setDate(1, day);
+            s.setDate(2, day);
+            s.setInt(3, 0);
+            s.setBytes(4, new byte[8]);
+            s.setBytes(5, new byte[8]);
+        }));
+        queries.add(HotQuery.read("archive.segments", AppointmentArchive.GET_SEGMENTS, s -> {
+            s.setDate(1, day);
+            s.setDate(2, weekLater);
+        }));
+        queries.add(HotQuery.read("archive.segment_data", AppointmentArchive.GET_SEGMENT_DATA,
+                s -> s.setInt(1, -1)));
+        return queries;
+    }
+
+    // scan operators in the estimated plan of the query
+    private static List<String> scans(Connection con, HotQuery query) throws SQLException {
+        List<String> scans = new ArrayList<>();
+        con.createStatement().execute("SET SHOWPLAN_XML ON");
+        try {
+            PreparedStatement statement = query.preparer.prepare(con);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Matcher matcher = PHYSICAL_OP.matcher(resultSet.getString(1));
+                while (matcher.find()) {
+                    if (SCAN_OPS.contains(matcher.group(1)) && !scans.contains(matcher.group(1))) {
+                        scans.add(matcher.group(1));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reading the plan of " + query.name + "!", e);
+        } finally {
+            con.createStatement().execute("SET SHOWPLAN_XML OFF");
+        }
+        return scans;
+    }
+
+    private static double medianMillis(Connection con, HotQuery query, int runs) throws SQLException {
+        double[] millis = new double[runs];
+        try {
+            for (int i = -WARMUP_RUNS; i < runs; i++) {
+                long start = System.nanoTime();
+                PreparedStatement statement = query.preparer.prepare(con);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    // drain, the client side of the query counts too
+                }
+                statement.close();
+                if (i >= 0) {
+                    millis[i] = (System.nanoTime() - start) / 1_000_000.0;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when timing " + query.name + "!", e);
+        }
+        Arrays.sort(millis);
+        return millis[runs / 2];
+    }
+
+    // Inserts a pc_ dataset large enough for the optimizer to prefer seeks: CAREGIVERS caregivers free on
+    // about half of DAYS days, appointments / 4 patients, VACCINES vaccines and their daily usage
+    private static void seed(int appointments) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String findSeed = "SELECT Username FROM Caregivers WHERE Username = ?";
+        String addCaregiver = "INSERT INTO Caregivers (Username, Salt, Hash) VALUES (?, ?, ?)";
+        String addPatient = "INSERT INTO Patients (Username, Salt, Hash) VALUES (?, ?, ?)";
+        String addVaccine = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)";
+        String addAvailability = "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)";
+        String addAppointment = "INSERT INTO Appointments (caregiver_name, vaccine_name, patient_name, app_time) " +
+                "VALUES (?, ?, ?, ?)";
+        String addUsage = "INSERT INTO DailyVaccineUsage (Day, Vaccine_name, Doses) VALUES (?, ?, ?)";
+        try {
+            PreparedStatement find = con.prepareStatement(findSeed);
+            find.setString(1, PREFIX + "c0");
+            if (find.executeQuery().next()) {
+                System.out.println("Seed data already present, skipping");
+                return;
+            }
+            con.setAutoCommit(false);
+            Random random = new Random(42);
+            byte[] salt = new byte[16];
+            int patients = Math.max(1, appointments / 4);
+
+            PreparedStatement statement = con.prepareStatement(addCaregiver);
+            for (int i = 0; i < CAREGIVERS; i++) {
+                statement.setString(1, PREFIX + "c" + i);
+                statement.setBytes(2, salt);
+                statement.setBytes(3, salt);
+                addBatch(statement, i);
+            }
+            statement.executeBatch();
+
+            statement = con.prepareStatement(addPatient);
+            for (int i = 0; i < patients; i++) {
+                statement.setString(1, PREFIX + "p" + i);
+                statement.setBytes(2, salt);
+                statement.setBytes(3, salt);
+                addBatch(statement, i);
+            }
+            statement.executeBatch();
+
+            statement = con.prepareStatement(addVaccine);
+            for (int i = 0; i < VACCINES; i++) {
+                statement.setString(1, PREFIX + "v" + i);
+                statement.setInt(2, 1_000_000);
+                statement.executeUpdate();
+            }
+
+            statement = con.prepareStatement(addAvailability);
+            int rows = 0;
+            for (int c = 0; c < CAREGIVERS; c++) {
+                for (int d = 0; d < DAYS; d++) {
+                    if (random.nextBoolean()) {
+                        statement.setDate(1, Date.valueOf(FIRST_DAY.plusDays(d)));
+                        statement.setString(2, PREFIX + "c" + c);
+                        addBatch(statement, rows++);
+                    }
+                }
+            }
+            statement.executeBatch();
+
+            statement = con.prepareStatement(addAppointment);
+            for (int i = 0; i < appointments; i++) {
+                statement.setString(1, PREFIX + "c" + random.nextInt(CAREGIVERS));
+                statement.setString(2, PREFIX + "v" + random.nextInt(VACCINES));
+                statement.setString(3, PREFIX + "p" + random.nextInt(patients));
+                statement.setDate(4, Date.valueOf(FIRST_DAY.plusDays(random.nextInt(DAYS))));
+                addBatch(statement, i);
+            }
+            statement.executeBatch();
+
+            statement = con.prepareStatement(addUsage);
+            rows = 0;
+            for (int d = 0; d < DAYS; d++) {
+                for (int v = 0; v < VACCINES; v++) {
+                    statement.setDate(1, Date.valueOf(FIRST_DAY.plusDays(d)));
+                    statement.setString(2, PREFIX + "v" + v);
+                    statement.setInt(3, random.nextInt(50));
+                    addBatch(statement, rows++);
+                }
+            }
+            statement.executeBatch();
+            con.commit();
+            // the optimizer should see the seeded sizes, not the empty tables it saw before
+            con.setAutoCommit(true);
+            con.createStatement().execute("EXEC sp_updatestats");
+            System.out.println("Seeded " + CAREGIVERS + " caregivers, " + patients + " patients and " +
+                    appointments + " appointments");
+        } catch (SQLException e) {
+            if (!con.getAutoCommit()) {
+                con.rollback();
+            }
+            e.printStackTrace();
+            throw new SQLException("Error occurred when seeding the plan check data!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void addBatch(PreparedStatement statement, int row) throws SQLException {
+        statement.addBatch();
+        if ((row + 1) % BATCH_SIZE == 0) {
+            statement.executeBatch();
+        }
+    }
+
+    private interface Preparer {
+        PreparedStatement prepare(Connection con) throws SQLException;
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    private static class HotQuery {
+        private final String name;
+        private final Preparer preparer;
+        private final boolean readOnly;
+        private boolean scanAllowed = false;
+
+        private HotQuery(String name, Preparer preparer, boolean readOnly) {
+            this.name = name;
+            this.preparer = preparer;
+            this.readOnly = readOnly;
+        }
+
+        private static HotQuery read(String name, String sql, Binder binder) {
+            return new HotQuery(name, bound(sql, binder), true);
+        }
+
+        // statements that change data are only planned, never executed
+        private static HotQuery write(String name, String sql, Binder binder) {
+            return new HotQuery(name, bound(sql, binder), false);
+        }
+
+        private static Preparer bound(String sql, Binder binder) {
+            return con -> {
+                PreparedStatement statement = con.prepareStatement(sql);
+                binder.bind(statement);
+                return statement;
+            };
+        }
+
+        private HotQuery allowScan() {
+            this.scanAllowed = true;
+            return this;
+        }
+    }
+}
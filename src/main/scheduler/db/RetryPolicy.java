@@ -0,0 +1,81 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Retries calls that failed with a transient SQL Server / Azure SQL error, sleeping a random time up to
+// an exponentially growing cap between attempts ("full jitter"), so clients that failed together do
+// not come back together.
+// Only wrap calls that are safe to repeat: reads, or writes made idempotent by the caller.
+public class RetryPolicy {
+
+    // error numbers Azure SQL documents as transient: throttling, failover, reconfiguration, deadlock
+    private static final Set<Integer> TRANSIENT_ERRORS = Set.of(
+            1205, 4060, 4221, 10053, 10054, 10060, 10928, 10929, 40143, 40197, 40501, 40540, 40613,
+            49918, 49919, 49920, 233, 64);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Attempts must be positive and delays ordered!");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(4, 100, 2_000);
+    }
+
+    public <T> T call(SqlCall<T> call) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (SQLException e) {
+                if (attempt >= maxAttempts || !isTransient(e)) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(backoffMillis(attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // random delay in [0, min(max, base * 2^(attempt - 1))]
+    long backoffMillis(int attempt) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    // true if the exception or anything it wraps is a transient error, a lost connection (SQLState
+    // class 08) or a timeout
+    public static boolean isTransient(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                SQLException e = (SQLException) t;
+                if (TRANSIENT_ERRORS.contains(e.getErrorCode())
+                        || (e.getSQLState() != null && e.getSQLState().startsWith("08"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+}
@@ -0,0 +1,311 @@
+package scheduler.db;
+
+import scheduler.event.EventFeed;
+import scheduler.event.EventOutbox;
+import scheduler.event.SchedulingEvent;
+import scheduler.model.Availability;
+import scheduler.model.AvailabilityCalendar;
+import scheduler.model.Vaccine;
+import scheduler.util.NameDictionary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+// In-memory copy of what search_caregiver_schedule reads: which caregivers are free on each day, and the
+// dose stock of each vaccine. Each day is a BitSet over caregiver numbers, with one NameDictionary for the
+// caregiver names, so the whole state can be written to disk and memory-mapped back in without a table
+// scan over the network.
+//
+// capture() reads the event feed's settled position first and then scans the tables; catchUp() replays
+// the SchedulingEvents after that position. The scan may already include some of those events, so every
+// event is applied as a set operation (a day becomes free or taken, a vaccine's stock becomes the count
+// the event carries) and replaying them in position order converges on the database state.
+// The snapshot holds no appointments: reserve, cancel and show_appointments still read and write the
+// Appointments table (and the archive's segments), so archiving past appointments never touches it.
+public class SchedulerSnapshot {
+
+    private static final int MAGIC = 0x56534e50; // "VSNP"
+    private static final int FORMAT_VERSION = 3;
+    private static final int BATCH_SIZE = 500;
+
+    // caregiver number -> name and site; names are case-insensitive like the Username columns
+    private final NameDictionary caregivers = new NameDictionary(1024);
+    private final List<String> caregiverNames = new ArrayList<>();
+    private final List<String> caregiverSites = new ArrayList<>();
+    // epoch day -> caregivers free that day
+    private final TreeMap<Integer, BitSet> free = new TreeMap<>();
+    private final TreeMap<String, Integer> doses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    // event feed position the state reflects
+    private long position = 0L;
+
+    private SchedulerSnapshot() {
+    }
+
+    // Builds a snapshot with one scan of the availability store and the vaccines
+    public static SchedulerSnapshot capture() throws SQLException {
+        SchedulerSnapshot snapshot = new SchedulerSnapshot();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            // taken before the scans, so no event the scans miss can sit below it
+            snapshot.position = EventFeed.settledPosition(con);
+            snapshot.loadVaccines(con);
+            if (AvailabilityCalendar.enabled()) {
+                snapshot.loadCalendars(con);
+            } else {
+                snapshot.loadAvailabilities(con);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when capturing snapshot!", e);
+        } finally {
+            cm.closeConnection();
+        }
+        return snapshot;
+    }
+
+    // Applies the events committed since the snapshot's position: uploads, bookings, cancellations and
+    // dose adjustments. Cheap enough to call before every read, one index seek when nothing changed.
+    public synchronized void catchUp() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            List<SchedulingEvent> events;
+            do {
+                events = EventFeed.read(con, position, BATCH_SIZE);
+                for (SchedulingEvent event : events) {
+                    apply(event);
+                    position = event.getPosition();
+                }
+            } while (events.size() == BATCH_SIZE);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when catching up snapshot!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void apply(SchedulingEvent event) {
+        Map<String, String> fields = EventOutbox.parse(event.getPayload());
+        switch (event.getType()) {
+            case AVAILABILITY_ADDED:
+            case APPOINTMENT_CANCELLED:
+                // a cancellation gives the caregiver the day back
+                setFree(fields.get("caregiver"), fields.get("site"), Date.valueOf(fields.get("date")), true);
+                break;
+            case APPOINTMENT_BOOKED:
+                setFree(fields.get("caregiver"), fields.get("site"), Date.valueOf(fields.get("date")), false);
+                break;
+            case DOSES_ADJUSTED:
+                doses.put(fields.get("vaccine"), Integer.parseInt(fields.get("doses")));
+                break;
+        }
+    }
+
+    private void loadVaccines(Connection con) throws SQLException {
+        ResultSet resultSet = con.prepareStatement(Vaccine.GET_ALL).executeQuery();
+        while (resultSet.next()) {
+            doses.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+        }
+    }
+
+    private void loadAvailabilities(Connection con) throws SQLException {
+        ResultSet resultSet = con.prepareStatement(Availability.GET_ALL).executeQuery();
+        while (resultSet.next()) {
+            setFree(resultSet.getString("Username"), resultSet.getString("Site"), resultSet.getDate("Time"), true);
+        }
+    }
+
+    private void loadCalendars(Connection con) throws SQLException {
+        ResultSet resultSet = con.prepareStatement(AvailabilityCalendar.GET_ALL).executeQuery();
+        while (resultSet.next()) {
+            int caregiver = caregiver(resultSet.getString("Username"), resultSet.getString("Site"));
+            int firstDay = (int) LocalDate.of(resultSet.getInt("Year"), 1, 1).toEpochDay();
+            long[] words = AvailabilityCalendar.readWords(resultSet);
+            for (int w = 0; w < words.length; w++) {
+                for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                    free.computeIfAbsent(firstDay + w * 64 + Long.numberOfTrailingZeros(bits), k -> new BitSet())
+                            .set(caregiver);
+                }
+            }
+        }
+    }
+
+    private void setFree(String username, String site, Date d, boolean isFree) {
+        int caregiver = caregiver(username, site);
+        int day = (int) d.toLocalDate().toEpochDay();
+        if (isFree) {
+            free.computeIfAbsent(day, k -> new BitSet()).set(caregiver);
+        } else {
+            BitSet caregivers = free.get(day);
+            if (caregivers != null) {
+                caregivers.clear(caregiver);
+                if (caregivers.isEmpty()) {
+                    free.remove(day);
+                }
+            }
+        }
+    }
+
+    // number of the caregiver, registering it on first sight; a known site is kept up to date
+    private int caregiver(String username, String site) {
+        String key = username.toLowerCase(Locale.ROOT);
+        int caregiver = caregivers.get(key);
+        if (caregiver == -1) {
+            caregiver = caregivers.intern(key);
+            caregiverNames.add(username);
+            caregiverSites.add(site);
+        } else if (site != null) {
+            caregiverSites.set(caregiver, site);
+        }
+        return caregiver;
+    }
+
+    // Every free (day, caregiver) in [from, to], ordered by date and username, like Availability.freeBetween
+    public synchronized List<Availability> freeBetween(Date from, Date to) {
+        List<Availability> availabilities = new ArrayList<>();
+        int start = (int) from.toLocalDate().toEpochDay();
+        int end = (int) to.toLocalDate().toEpochDay();
+        for (Map.Entry<Integer, BitSet> entry : free.subMap(start, true, end, true).entrySet()) {
+            Date day = Date.valueOf(LocalDate.ofEpochDay(entry.getKey()));
+            int first = availabilities.size();
+            BitSet caregivers = entry.getValue();
+            for (int c = caregivers.nextSetBit(0); c >= 0; c = caregivers.nextSetBit(c + 1)) {
+                availabilities.add(new Availability(day, caregiverNames.get(c), caregiverSites.get(c)));
+            }
+            availabilities.subList(first, availabilities.size())
+                    .sort(Comparator.comparing(Availability::getUsername, String.CASE_INSENSITIVE_ORDER));
+        }
+        return availabilities;
+    }
+
+    // Vaccine name -> doses in stock, by name
+    public synchronized Map<String, Integer> getDoses() {
+        return new TreeMap<>(doses);
+    }
+
+    // Writes the snapshot to a temporary file and atomically moves it over the previous one
+    public synchronized void writeTo(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(position);
+            out.writeInt(caregiverNames.size());
+            for (int c = 0; c < caregiverNames.size(); c++) {
+                writeString(out, caregiverNames.get(c));
+                writeString(out, caregiverSites.get(c));
+            }
+            out.writeInt(doses.size());
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            out.writeInt(free.size());
+            for (Map.Entry<Integer, BitSet> entry : free.entrySet()) {
+                long[] words = entry.getValue().toLongArray();
+                out.writeInt(entry.getKey());
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Memory-maps the file and bulk-copies each day's words, no per-row parsing
+    public static SchedulerSnapshot readFrom(Path path) throws IOException {
+        SchedulerSnapshot snapshot = new SchedulerSnapshot();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a scheduler snapshot: " + path);
+            }
+            snapshot.position = buffer.getLong();
+            int caregivers = buffer.getInt();
+            for (int c = 0; c < caregivers; c++) {
+                String username = readString(buffer);
+                snapshot.caregiver(username, readString(buffer));
+            }
+            int vaccines = buffer.getInt();
+            for (int v = 0; v < vaccines; v++) {
+                String name = readString(buffer);
+                snapshot.doses.put(name, buffer.getInt());
+            }
+            int days = buffer.getInt();
+            for (int d = 0; d < days; d++) {
+                int day = buffer.getInt();
+                long[] words = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(words);
+                buffer.position(buffer.position() + words.length * Long.BYTES);
+                snapshot.free.put(day, BitSet.valueOf(words));
+            }
+        }
+        return snapshot;
+    }
+
+    // strings are written as (length, UTF-8 bytes), length -1 for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Getters
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    public synchronized int getAvailabilityCount() {
+        int count = 0;
+        for (BitSet caregivers : free.values()) {
+            count += caregivers.cardinality();
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SchedulerSnapshot{" +
+                "caregivers=" + caregiverNames.size() +
+                ", availabilities=" + getAvailabilityCount() +
+                ", vaccines=" + doses.size() +
+                ", position=" + position +
+                '}';
+    }
+}
@@ -0,0 +1,175 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Applies the versioned schema migrations on top of create.sql.
+// Migrations are files named V<version>__<description>.sql in the migrations directory; each pending one
+// runs in its own transaction together with its SchemaVersion row, in version order, so a database is
+// always at a well-defined version and a failed migration leaves nothing half applied.
+// A script is split into statements at semicolons that end a line, each sent on its own, so a migration
+// cannot hold a BEGIN ... END block or anything else with a line ending in a semicolon inside it; guard a
+// single statement with IF instead, as V000 does.
+//
+// Usage: java scheduler.db.SchemaMigrator [migrations-dir] [status]
+// The directory defaults to src/main/resources/migrations. The Scheduler also migrates on startup.
+public class SchemaMigrator {
+
+    public static final Path DEFAULT_DIRECTORY = Paths.get("src", "main", "resources", "migrations");
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    private final Path directory;
+
+    public SchemaMigrator(Path directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        boolean status = args.length > 0 && args[args.length - 1].equals("status");
+        int dirArgs = status ? args.length - 1 : args.length;
+        SchemaMigrator migrator = new SchemaMigrator(dirArgs > 0 ? Paths.get(args[0]) : DEFAULT_DIRECTORY);
+        if (status) {
+            Set<Integer> applied = migrator.appliedVersions();
+            for (Migration migration : migrator.migrations()) {
+                System.out.println((applied.contains(migration.version) ? "applied  " : "pending  ") + migration.name);
+            }
+        } else {
+            List<Migration> applied = migrator.migrate();
+            for (Migration migration : applied) {
+                System.out.println("Applied " + migration.name);
+            }
+            System.out.println("Applied " + applied.size() + " migration(s)");
+        }
+    }
+
+    // Applies every migration newer than the database; returns the ones applied, in order
+    public List<Migration> migrate() throws IOException, SQLException {
+        Set<Integer> versions = appliedVersions();
+        List<Migration> applied = new ArrayList<>();
+        for (Migration migration : migrations()) {
+            if (versions.contains(migration.version)) {
+                continue;
+            }
+            apply(migration);
+            applied.add(migration);
+        }
+        return applied;
+    }
+
+    private void apply(Migration migration) throws IOException, SQLException {
+        String script = new String(Files.readAllBytes(migration.path), StandardCharsets.UTF_8);
+        ConnectionManager cm = ConnectionManager.forMaintenance();
+        Connection con = cm.createConnection();
+
+        String recordVersion = "INSERT INTO SchemaVersion (Version, Name, Applied) VALUES (?, ?, ?)";
+        try {
+            con.setAutoCommit(false);
+            for (String statement : statements(script)) {
+                con.createStatement().execute(statement);
+            }
+            PreparedStatement statement = con.prepareStatement(recordVersion);
+            statement.setInt(1, migration.version);
+            statement.setString(2, migration.name);
+            statement.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            statement.executeUpdate();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when applying migration " + migration.name + "!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Versions recorded in SchemaVersion, creating the table on first use
+    public Set<Integer> appliedVersions() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String createTable = "IF OBJECT_ID('SchemaVersion') IS NULL CREATE TABLE SchemaVersion (" +
+                "Version int PRIMARY KEY, Name varchar(255) NOT NULL, Applied datetime2 NOT NULL)";
+        String getVersions = "SELECT Version FROM SchemaVersion";
+        Set<Integer> versions = new HashSet<>();
+        try {
+            con.createStatement().execute(createTable);
+            ResultSet resultSet = con.prepareStatement(getVersions).executeQuery();
+            while (resultSet.next()) {
+                versions.add(resultSet.getInt("Version"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reading the schema version!", e);
+        } finally {
+            cm.closeConnection();
+        }
+        return versions;
+    }
+
+    // Migration files in version order
+    public List<Migration> migrations() throws IOException {
+        TreeMap<Integer, Migration> byVersion = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "V*__*.sql")) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                Matcher matcher = MIGRATION_NAME.matcher(name);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                Migration migration = new Migration(Integer.parseInt(matcher.group(1)), name, path);
+                Migration clash = byVersion.put(migration.version, migration);
+                if (clash != null) {
+                    throw new IOException("Migrations " + clash.name + " and " + name + " have the same version");
+                }
+            }
+        }
+        return new ArrayList<>(byVersion.values());
+    }
+
+    // Splits a script into statements at semicolons that end a line; there is no GO batch separator
+    public static List<String> statements(String script) {
+        List<String> statements = new ArrayList<>();
+        for (String statement : script.split(";\\s*(\\r?\\n|$)")) {
+            if (!statement.replaceAll("(?m)^\\s*--.*$", "").isBlank()) {
+                statements.add(statement.trim());
+            }
+        }
+        return statements;
+    }
+
+    public static class Migration {
+        private final int version;
+        private final String name;
+        private final Path path;
+
+        private Migration(int version, String name, Path path) {
+            this.version = version;
+            this.name = name;
+            this.path = path;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package scheduler.db;
+
+import scheduler.model.Availability;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Maps each clinic site to the connection pool of its own database, for cross-site reads: a query runs
+// on every site in parallel and the results are merged.
+// Writes are not routed. Each process writes to its home site through ConnectionManager, so its
+// JdbcUrl or Server/DBName must point at that site's database.
+//
+// Sites come from the environment: Sites=east,west lists them, and each site is configured with either
+// JdbcUrl_<site> or Server_<site> and DBName_<site>, plus UserID_<site> and Password_<site> (falling
+// back to UserID and Password). Without Sites, the database ConnectionManager connects to (JdbcUrl, or
+// Server and DBName) is the only site.
+public class ShardRouter implements AutoCloseable {
+
+    public static final String DEFAULT_SITE = "default";
+    private static final int POOL_SIZE = 8;
+    private static final long BORROW_TIMEOUT_MILLIS = 5_000;
+
+    private final Map<String, ConnectionPool> pools = new LinkedHashMap<>();
+    private final ExecutorService fanOutPool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The site this process writes to
+    public static String homeSite() {
+        String site = System.getenv("Site");
+        return site == null || site.isBlank() ? DEFAULT_SITE : site;
+    }
+
+    public static ShardRouter fromEnvironment() {
+        ShardRouter router = new ShardRouter();
+        String sites = System.getenv("Sites");
+        if (sites == null || sites.isBlank()) {
+            router.addSite(homeSite(), new ConnectionPool(ConnectionManager.defaultUrl(),
+                    System.getenv("UserID"), System.getenv("Password"), POOL_SIZE, BORROW_TIMEOUT_MILLIS));
+            return router;
+        }
+        for (String site : sites.split(",")) {
+            site = site.trim();
+            String url = System.getenv("JdbcUrl_" + site);
+            if (url == null) {
+                url = ConnectionManager.azureUrl(System.getenv("Server_" + site), System.getenv("DBName_" + site));
+            }
+            router.addSite(site, new ConnectionPool(url, env("UserID", site), env("Password", site),
+                    POOL_SIZE, BORROW_TIMEOUT_MILLIS));
+        }
+        return router;
+    }
+
+    private static String env(String name, String site) {
+        String value = System.getenv(name + "_" + site);
+        return value != null ? value : System.getenv(name);
+    }
+
+    public synchronized ShardRouter addSite(String site, ConnectionPool pool) {
+        if (pools.containsKey(site)) {
+            throw new IllegalArgumentException("Site " + site + " is already configured!");
+        }
+        pools.put(site, pool);
+        return this;
+    }
+
+    public synchronized Set<String> sites() {
+        return Collections.unmodifiableSet(pools.keySet());
+    }
+
+    public synchronized ConnectionPool pool(String site) {
+        ConnectionPool pool = pools.get(site);
+        if (pool == null) {
+            throw new IllegalArgumentException("Unknown site: " + site);
+        }
+        return pool;
+    }
+
+    // Runs the query on every site in parallel and concatenates the results in site order
+    public <T> List<T> fanOut(SiteQuery<T> query) throws SQLException {
+        Map<String, Future<List<T>>> pending = new LinkedHashMap<>();
+        for (String site : sites()) {
+            ConnectionPool pool = pool(site);
+            pending.put(site, fanOutPool.submit(() -> {
+                Connection con = pool.borrow();
+                try {
+                    return query.run(site, con);
+                } finally {
+                    pool.release(con);
+                }
+            }));
+        }
+        List<T> merged = new ArrayList<>();
+        for (Map.Entry<String, Future<List<T>>> entry : pending.entrySet()) {
+            try {
+                merged.addAll(entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while querying site " + entry.getKey() + "!");
+            } catch (ExecutionException e) {
+                throw new SQLException("Error occurred when querying site " + entry.getKey() + "!", e.getCause());
+            }
+        }
+        return merged;
+    }
+
+    // Every caregiver at every site that is available on the given date
+    public List<SiteAvailability> findAvailability(Date d) throws SQLException {
+        return fanOut((site, con) -> {
+            PreparedStatement statement = Availability.prepareFreeOn(con, d, false);
+            ResultSet resultSet = statement.executeQuery();
+            List<SiteAvailability> result = new ArrayList<>();
+            while (resultSet.next()) {
+                result.add(new SiteAvailability(site, resultSet.getString("Username"), d));
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        fanOutPool.shutdownNow();
+        for (ConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+    }
+
+    public interface SiteQuery<T> {
+        List<T> run(String site, Connection con) throws SQLException;
+    }
+
+    public static class SiteAvailability {
+        private final String site;
+        private final String username;
+        private final Date time;
+
+        public SiteAvailability(String site, String username, Date time) {
+            this.site = site;
+            this.username = username;
+            this.time = time;
+        }
+
+        // Getters
+        public String getSite() {
+            return site;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public Date getTime() {
+            return time;
+        }
+
+        @Override
+        public String toString() {
+            return "SiteAvailability{" +
+                    "site='" + site + '\'' +
+                    ", username='" + username + '\'' +
+                    ", time=" + time +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package scheduler.event;
+
+import scheduler.db.ConnectionManager;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads the SchedulingEvents outbox incrementally by position.
+// Event_offset is an identity handed out before commit, so it cannot be used as a resume point: a
+// transaction that commits late makes a lower offset appear after a higher one. The feed orders events by
+// their Row_version instead and only returns events below MIN_ACTIVE_ROWVERSION(), the lowest rowversion
+// an open transaction still holds. Everything below it is committed (or rolled back), so an event can never
+// show up behind a position a consumer has already passed, however long its transaction stays open.
+public class EventFeed {
+
+    public static final String GET_EVENTS = "SELECT TOP (?) CAST(Row_version AS bigint) AS Position, Event_offset, " +
+            "Event_type, Payload, Created FROM SchedulingEvents " +
+            "WHERE Row_version > CAST(CAST(? AS bigint) AS binary(8)) AND Row_version < MIN_ACTIVE_ROWVERSION() " +
+            "ORDER BY Row_version";
+    // every event at or below this position is already committed
+    public static final String GET_SETTLED_POSITION = "SELECT CAST(MIN_ACTIVE_ROWVERSION() AS bigint) - 1 AS Position";
+
+    private static final int BATCH_SIZE = 500;
+
+    private EventFeed() {
+    }
+
+    // Up to `limit` committed events with a position greater than `afterPosition`, in position order
+    public static List<SchedulingEvent> read(long afterPosition, int limit) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            return read(con, afterPosition, limit);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reading scheduling events!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static List<SchedulingEvent> read(Connection con, long afterPosition, int limit) throws SQLException {
+        List<SchedulingEvent> events = new ArrayList<>();
+        PreparedStatement statement = con.prepareStatement(GET_EVENTS);
+        statement.setInt(1, limit);
+        statement.setLong(2, afterPosition);
+        ResultSet resultSet = statement.executeQuery();
+        while (resultSet.next()) {
+            events.add(new SchedulingEvent(resultSet.getLong("Position"),
+                    resultSet.getLong("Event_offset"),
+                    EventType.valueOf(resultSet.getString("Event_type")),
+                    resultSet.getString("Payload"),
+                    resultSet.getTimestamp("Created")));
+        }
+        return events;
+    }
+
+    // The position a reader starting now can resume from without missing a committed event
+    public static long settledPosition(Connection con) throws SQLException {
+        ResultSet resultSet = con.prepareStatement(GET_SETTLED_POSITION).executeQuery();
+        resultSet.next();
+        return resultSet.getLong("Position");
+    }
+
+    // Delivers events to the subscriber from its last position on, polling until the thread is interrupted
+    public static void tail(EventSubscriber subscriber, long pollMillis) throws Exception {
+        long position = subscriber.lastPosition();
+        while (!Thread.currentThread().isInterrupted()) {
+            List<SchedulingEvent> events = read(position, BATCH_SIZE);
+            for (SchedulingEvent event : events) {
+                subscriber.onEvent(event);
+                position = event.getPosition();
+            }
+            if (events.size() < BATCH_SIZE) {
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Tails the feed into an append-only file: java scheduler.event.EventFeed <file> [pollMillis]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: EventFeed <file> [pollMillis]");
+            return;
+        }
+        long pollMillis = args.length == 2 ? Long.parseLong(args[1]) : 1_000;
+        try (FileEventSubscriber subscriber = new FileEventSubscriber(Paths.get(args[0]))) {
+            System.out.println("Tailing scheduling events from position " + subscriber.lastPosition() + " into " + args[0]);
+            tail(subscriber, pollMillis);
+        }
+    }
+}
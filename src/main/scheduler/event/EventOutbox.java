@@ -0,0 +1,128 @@
+package scheduler.event;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Transactional outbox for scheduling events.
+// Mutation paths call append() on the same connection and inside the same transaction as the change
+// itself, so an event is visible exactly when the change it describes has committed.
+public class EventOutbox {
+
+    public static final String INSERT_EVENT = "INSERT INTO SchedulingEvents (Event_type, Payload) VALUES (?, ?)";
+
+    private EventOutbox() {
+    }
+
+    public static void append(Connection con, EventType type, String payload) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(INSERT_EVENT);
+        statement.setString(1, type.name());
+        statement.setString(2, payload);
+        statement.executeUpdate();
+    }
+
+    // Builds a flat JSON object from alternating keys and values; numbers and booleans stay unquoted
+    public static String payload(Object... keysAndValues) {
+        if (keysAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected alternating keys and values!");
+        }
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (i > 0) {
+                json.append(',');
+            }
+            quote(json, String.valueOf(keysAndValues[i]));
+            json.append(':');
+            Object value = keysAndValues[i + 1];
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                json.append(value);
+            } else {
+                quote(json, value.toString());
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    // Reads a payload written by payload() back into its keys and values, as strings (null for null)
+    public static Map<String, String> parse(String payload) {
+        Map<String, String> fields = new HashMap<>();
+        int[] at = {skipSpaces(payload, 0)};
+        expect(payload, at, '{');
+        while (payload.charAt(at[0]) != '}') {
+            if (!fields.isEmpty()) {
+                expect(payload, at, ',');
+            }
+            String key = readString(payload, at);
+            expect(payload, at, ':');
+            String value;
+            if (payload.charAt(at[0]) == '"') {
+                value = readString(payload, at);
+            } else {
+                int start = at[0];
+                while (payload.charAt(at[0]) != ',' && payload.charAt(at[0]) != '}') {
+                    at[0]++;
+                }
+                value = payload.substring(start, at[0]).trim();
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+            fields.put(key, value);
+            at[0] = skipSpaces(payload, at[0]);
+        }
+        return fields;
+    }
+
+    private static void expect(String payload, int[] at, char c) {
+        if (payload.charAt(at[0]) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at " + at[0] + " in " + payload);
+        }
+        at[0] = skipSpaces(payload, at[0] + 1);
+    }
+
+    private static int skipSpaces(String payload, int at) {
+        while (at < payload.length() && Character.isWhitespace(payload.charAt(at))) {
+            at++;
+        }
+        return at;
+    }
+
+    private static String readString(String payload, int[] at) {
+        if (payload.charAt(at[0]) != '"') {
+            throw new IllegalArgumentException("Expected a string at " + at[0] + " in " + payload);
+        }
+        StringBuilder value = new StringBuilder();
+        int i = at[0] + 1;
+        for (char c = payload.charAt(i); c != '"'; c = payload.charAt(++i)) {
+            if (c == '\\') {
+                c = payload.charAt(++i);
+                if (c == 'u') {
+                    c = (char) Integer.parseInt(payload.substring(i + 1, i + 5), 16);
+                    i += 4;
+                }
+            }
+            value.append(c);
+        }
+        at[0] = skipSpaces(payload, i + 1);
+        return value.toString();
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
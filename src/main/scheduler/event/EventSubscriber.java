@@ -0,0 +1,10 @@
+package scheduler.event;
+
+// Consumer of the scheduling event feed, called once per event in position order
+public interface EventSubscriber {
+
+    // Position of the last event this subscriber has durably processed, 0 if none
+    long lastPosition();
+
+    void onEvent(SchedulingEvent event) throws Exception;
+}
@@ -0,0 +1,9 @@
+package scheduler.event;
+
+// Kinds of changes published on the scheduling event feed
+public enum EventType {
+    APPOINTMENT_BOOKED,
+    APPOINTMENT_CANCELLED,
+    AVAILABILITY_ADDED,
+    DOSES_ADJUSTED
+}
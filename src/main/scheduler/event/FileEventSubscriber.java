@@ -0,0 +1,79 @@
+package scheduler.event;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Appends events to a local file, one "position<TAB>offset<TAB>type<TAB>payload" line per event.
+// The file doubles as the subscriber's checkpoint: on start the position of its last line is where
+// tailing resumes, so downstream readers can follow the file like a log.
+public class FileEventSubscriber implements EventSubscriber, AutoCloseable {
+    private final BufferedWriter out;
+    private long lastPosition;
+
+    public FileEventSubscriber(Path path) throws IOException {
+        this.lastPosition = readLastPosition(path);
+        this.out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public long lastPosition() {
+        return lastPosition;
+    }
+
+    @Override
+    public void onEvent(SchedulingEvent event) throws IOException {
+        if (event.getPosition() <= lastPosition) {
+            return;
+        }
+        out.write(event.getPosition() + "\t" + event.getOffset() + "\t" + event.getType() + "\t" + event.getPayload());
+        out.newLine();
+        out.flush();
+        lastPosition = event.getPosition();
+    }
+
+    // scans backwards from the end of the file for the start of the last complete line
+    private static long readLastPosition(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            long end = file.length();
+            // ignore a trailing newline and anything after it
+            while (end > 0) {
+                file.seek(end - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end == 0) {
+                return 0;
+            }
+            long start = end - 1;
+            while (start > 0) {
+                file.seek(start - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                start--;
+            }
+            byte[] line = new byte[(int) (end - 1 - start)];
+            file.seek(start);
+            file.readFully(line);
+            String text = new String(line, StandardCharsets.UTF_8);
+            int tab = text.indexOf('\t');
+            return Long.parseLong(tab == -1 ? text.trim() : text.substring(0, tab));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
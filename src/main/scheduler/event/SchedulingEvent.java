@@ -0,0 +1,56 @@
+package scheduler.event;
+
+import java.sql.Timestamp;
+
+// One committed change read back from the SchedulingEvents outbox.
+// The offset identifies the event but is assigned at insert, so offsets do not follow commit order.
+// The position is what a consumer remembers: EventFeed hands events out in position order and never
+// returns one while a lower position can still commit (see EventFeed).
+public class SchedulingEvent {
+    private final long position;
+    private final long offset;
+    private final EventType type;
+    private final String payload;
+    private final Timestamp created;
+
+    public SchedulingEvent(long position, long offset, EventType type, String payload, Timestamp created) {
+        this.position = position;
+        this.offset = offset;
+        this.type = type;
+        this.payload = payload;
+        this.created = created;
+    }
+
+    // Getters
+    public long getPosition() {
+        return position;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public EventType getType() {
+        return type;
+    }
+
+    // JSON object describing the change
+    public String getPayload() {
+        return payload;
+    }
+
+    public Timestamp getCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulingEvent{" +
+                "position=" + position +
+                ", offset=" + offset +
+                ", type=" + type +
+                ", payload=" + payload +
+                ", created=" + created +
+                '}';
+    }
+}
@@ -0,0 +1,396 @@
+package scheduler.loadgen;
+
+import scheduler.archive.AppointmentArchive;
+import scheduler.db.ConnectionManager;
+import scheduler.db.SchemaMigrator;
+import scheduler.model.Availability;
+import scheduler.model.AvailabilityCalendar;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.service.AsyncSchedulerService;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Deterministic load generator for the scheduler's command set.
+// Synthesizes caregivers, availabilities, vaccines and patients, then drives a weighted mix of
+// create_patient, login_patient, search_caregiver_schedule, reserve and show_appointments from many
+// concurrent sessions, and finally checks the booking invariants. Every random choice comes from
+// Random instances derived from the seed, so a run with the same seed issues the same operations per
+// session (the interleaving between sessions is up to the scheduler). The operations go through the same
+// model classes, SQL constants and archive the scheduler uses, so AvailabilityStore=calendar is measured too.
+//
+// Usage: java scheduler.loadgen.LoadGenerator [key=value ...]
+//   seed=42 sessions=16 ops=10000 patients=500 caregivers=50 vaccines=3 doses=2000 days=30
+//   run=<id>  (part of every name, defaults to one derived from the clock so runs can repeat a seed)
+//   mix=create_patient:5,login_patient:20,search_caregiver_schedule:30,reserve:30,show_appointments:15
+//   schema=src/main/resources/create.sql  (run the schema script and its migrations first, for a fresh database)
+// The database is the one ConnectionManager connects to. The schema and queries are T-SQL, so it has to
+// be SQL Server: Azure by default, or a local instance or LocalDB through JdbcUrl, e.g.
+// JdbcUrl=jdbc:sqlserver://localhost:1433;database=scheduler_load;encrypt=false
+public class LoadGenerator {
+
+    private static final String PASSWORD = "Load#Gen1";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+    private static final double AVAILABILITY_RATE = 0.6;
+
+    private static final String STILL_FREE_IN_TABLE = "SELECT COUNT(*) FROM Appointments a JOIN Availabilities v " +
+            "ON v.Username = a.caregiver_name AND v.Time = a.app_time WHERE a.caregiver_name LIKE ?";
+    // the bit of the appointment's day in its caregiver's calendar; bit 63 of a word is its sign
+    private static final String STILL_FREE_IN_CALENDAR = "SELECT COUNT(*) FROM Appointments a " +
+            "JOIN AvailabilityCalendars k ON k.Username = a.caregiver_name AND k.Year = YEAR(a.app_time) " +
+            "CROSS APPLY (SELECT DATEPART(dayofyear, a.app_time) - 1 AS i) n " +
+            "CROSS APPLY (SELECT CASE n.i / 64 WHEN 0 THEN k.W0 WHEN 1 THEN k.W1 WHEN 2 THEN k.W2 " +
+            "WHEN 3 THEN k.W3 WHEN 4 THEN k.W4 ELSE k.W5 END AS W) w " +
+            "WHERE a.caregiver_name LIKE ? AND CASE WHEN n.i % 64 = 63 THEN CASE WHEN w.W < 0 THEN 1 ELSE 0 END " +
+            "ELSE w.W & POWER(CAST(2 AS bigint), n.i % 64) END <> 0";
+
+    enum Operation {
+        CREATE_PATIENT("create_patient"),
+        LOGIN_PATIENT("login_patient"),
+        SEARCH_CAREGIVER_SCHEDULE("search_caregiver_schedule"),
+        RESERVE("reserve"),
+        SHOW_APPOINTMENTS("show_appointments");
+
+        private final String command;
+
+        Operation(String command) {
+            this.command = command;
+        }
+    }
+
+    private final long seed;
+    private final int sessions;
+    private final int ops;
+    private final int patients;
+    private final int caregivers;
+    private final int vaccines;
+    private final int doses;
+    private final int days;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private final String schema;
+    // every name created by this run starts with the prefix, so runs do not collide, even with the same seed
+    private final String prefix;
+
+    private final List<String> patientNames = new ArrayList<>();
+    private final List<String> vaccineNames = new ArrayList<>();
+    private final AsyncSchedulerService service = new AsyncSchedulerService();
+    private final AppointmentArchive archive = new AppointmentArchive();
+
+    public LoadGenerator(Map<String, String> options) {
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.sessions = Integer.parseInt(options.getOrDefault("sessions", "16"));
+        this.ops = Integer.parseInt(options.getOrDefault("ops", "10000"));
+        this.patients = Integer.parseInt(options.getOrDefault("patients", "500"));
+        this.caregivers = Integer.parseInt(options.getOrDefault("caregivers", "50"));
+        this.vaccines = Integer.parseInt(options.getOrDefault("vaccines", "3"));
+        this.doses = Integer.parseInt(options.getOrDefault("doses", "2000"));
+        this.days = Integer.parseInt(options.getOrDefault("days", "30"));
+        this.schema = options.get("schema");
+        String run = options.getOrDefault("run", Long.toString(System.currentTimeMillis(), 36));
+        this.prefix = "lg" + seed + "_" + run + "_";
+        String weights = options.getOrDefault("mix",
+                "create_patient:5,login_patient:20,search_caregiver_schedule:30,reserve:30,show_appointments:15");
+        for (String entry : weights.split(",")) {
+            String[] parts = entry.split(":");
+            Operation operation = null;
+            for (Operation candidate : Operation.values()) {
+                if (candidate.command.equals(parts[0].trim())) {
+                    operation = candidate;
+                }
+            }
+            if (operation == null || parts.length != 2) {
+                throw new IllegalArgumentException("Bad mix entry: " + entry);
+            }
+            mix.put(operation, Integer.parseInt(parts[1].trim()));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 1) {
+                System.out.println("Expected key=value but got " + arg);
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        boolean ok = generator.run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    // Returns true if every invariant held
+    public boolean run() throws Exception {
+        if (schema != null) {
+            createSchema();
+        }
+        long start = System.nanoTime();
+        populate();
+        System.out.println(String.format("Populated %d caregivers, %d patients, %d vaccines in %.1f s",
+                caregivers, patients, vaccines, (System.nanoTime() - start) / 1e9));
+
+        ExecutorService pool = Executors.newFixedThreadPool(sessions);
+        List<Future<Map<Operation, LatencyRecorder>>> results = new ArrayList<>();
+        start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            Session session = new Session(i, ops / sessions + (i < ops % sessions ? 1 : 0));
+            results.add(pool.submit(session::run));
+        }
+        Map<Operation, LatencyRecorder> total = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            total.put(operation, new LatencyRecorder());
+        }
+        for (Future<Map<Operation, LatencyRecorder>> result : results) {
+            for (Map.Entry<Operation, LatencyRecorder> entry : result.get().entrySet()) {
+                total.get(entry.getKey()).merge(entry.getValue());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        service.close();
+
+        report(total, seconds);
+        return checkInvariants();
+    }
+
+    private void createSchema() throws IOException, SQLException {
+        String script = new String(Files.readAllBytes(Paths.get(schema)), StandardCharsets.UTF_8);
+        ConnectionManager cm = ConnectionManager.forMaintenance();
+        Connection con = cm.createConnection();
+        try {
+            for (String statement : SchemaMigrator.statements(script)) {
+                con.createStatement().execute(statement);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        // the scheduler's own columns, tables and indexes live in the versioned migrations next to the script
+        new SchemaMigrator(Paths.get(schema).resolveSibling("migrations")).migrate();
+    }
+
+    private void populate() throws SQLException {
+        Random random = new Random(seed);
+        for (int i = 0; i < caregivers; i++) {
+            byte[] salt = Util.generateSalt();
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(prefix + "c" + i, salt,
+                    Util.generateHash(PASSWORD, salt)).build();
+            caregiver.saveToDB();
+            for (int d = 0; d < days; d++) {
+                if (random.nextDouble() < AVAILABILITY_RATE) {
+                    caregiver.uploadAvailability(Date.valueOf(FIRST_DAY.plusDays(d)));
+                }
+            }
+        }
+        for (int i = 0; i < vaccines; i++) {
+            String name = prefix + "v" + i;
+            new Vaccine.VaccineBuilder(name, doses).build().saveToDB();
+            vaccineNames.add(name);
+        }
+        for (int i = 0; i < patients; i++) {
+            String name = prefix + "p" + i;
+            byte[] salt = Util.generateSalt();
+            new Patient.PatientBuilder(name, salt, Util.generateHash(PASSWORD, salt)).build().saveToDB();
+            patientNames.add(name);
+        }
+    }
+
+    private void report(Map<Operation, LatencyRecorder> total, double seconds) {
+        int count = 0;
+        System.out.println(String.format("%-26s %8s %7s %9s %9s %9s %9s",
+                "operation", "count", "errors", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (Map.Entry<Operation, LatencyRecorder> entry : total.entrySet()) {
+            LatencyRecorder recorder = entry.getValue();
+            count += recorder.getCount();
+            System.out.println(String.format("%-26s %8d %7d %9.2f %9.2f %9.2f %9.2f", entry.getKey().command,
+                    recorder.getCount(), recorder.getErrors(), recorder.percentileMillis(50),
+                    recorder.percentileMillis(95), recorder.percentileMillis(99), recorder.percentileMillis(100)));
+        }
+        System.out.println(String.format("%d operations in %.1f s, %.1f ops/s", count, seconds, count / seconds));
+    }
+
+    // no double booking, no booked availability left behind (in whichever store is enabled), stock never
+    // negative and conserved
+    private boolean checkInvariants() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String doubleBooked = "SELECT COUNT(*) FROM (SELECT caregiver_name, app_time FROM Appointments " +
+                "WHERE caregiver_name LIKE ? GROUP BY caregiver_name, app_time HAVING COUNT(*) > 1) d";
+        // the prefix is matched with LIKE, where _ is a wildcard unless bracketed
+        String stillAvailable = AvailabilityCalendar.enabled() ? STILL_FREE_IN_CALENDAR : STILL_FREE_IN_TABLE;
+        String negativeStock = "SELECT COUNT(*) FROM Vaccines WHERE Name LIKE ? AND Doses < 0";
+        String conservation = "SELECT v.Name, v.Doses, (SELECT COUNT(*) FROM Appointments a " +
+                "WHERE a.vaccine_name = v.Name) AS Booked FROM Vaccines v WHERE v.Name LIKE ?";
+        boolean ok = true;
+        try {
+            ok &= check(con, doubleBooked, "caregivers booked twice on the same day");
+            ok &= check(con, stillAvailable, "appointments whose availability was not removed");
+            ok &= check(con, negativeStock, "vaccines with negative stock");
+            PreparedStatement statement = con.prepareStatement(conservation);
+            statement.setString(1, prefix.replace("_", "[_]") + "%");
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                int left = resultSet.getInt("Doses");
+                int booked = resultSet.getInt("Booked");
+                if (left + booked != doses) {
+                    System.out.println("INVARIANT VIOLATED: " + resultSet.getString("Name") + " has " + left +
+                            " doses left and " + booked + " booked, expected " + doses + " in total");
+                    ok = false;
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        System.out.println(ok ? "All invariants hold" : "Invariants violated");
+        return ok;
+    }
+
+    private boolean check(Connection con, String query, String description) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(query);
+        statement.setString(1, prefix.replace("_", "[_]") + "%");
+        ResultSet resultSet = statement.executeQuery();
+        resultSet.next();
+        int violations = resultSet.getInt(1);
+        if (violations > 0) {
+            System.out.println("INVARIANT VIOLATED: " + violations + " " + description);
+            return false;
+        }
+        return true;
+    }
+
+    // One simulated user session with its own random stream and logged-in patient
+    private class Session {
+        private final int index;
+        private final int operations;
+        private final Random random;
+        private final Map<Operation, LatencyRecorder> latencies = new EnumMap<>(Operation.class);
+        private Patient current = null;
+        private int created = 0;
+
+        private Session(int index, int operations) {
+            this.index = index;
+            this.operations = operations;
+            this.random = new Random(seed * 31 + index);
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new LatencyRecorder());
+            }
+        }
+
+        private Map<Operation, LatencyRecorder> run() {
+            int totalWeight = 0;
+            for (int weight : mix.values()) {
+                totalWeight += weight;
+            }
+            for (int i = 0; i < operations; i++) {
+                int pick = random.nextInt(totalWeight);
+                Operation operation = null;
+                for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+                    pick -= entry.getValue();
+                    if (pick < 0) {
+                        operation = entry.getKey();
+                        break;
+                    }
+                }
+                long start = System.nanoTime();
+                try {
+                    execute(operation);
+                    latencies.get(operation).record(System.nanoTime() - start);
+                } catch (Exception e) {
+                    latencies.get(operation).recordError();
+                }
+            }
+            return latencies;
+        }
+
+        private void execute(Operation operation) throws SQLException {
+            switch (operation) {
+                case CREATE_PATIENT:
+                    byte[] salt = Util.generateSalt();
+                    new Patient.PatientBuilder(prefix + "s" + index + "_" + created++, salt,
+                            Util.generateHash(PASSWORD, salt)).build().saveToDB();
+                    break;
+                case LOGIN_PATIENT:
+                    login();
+                    break;
+                case SEARCH_CAREGIVER_SCHEDULE:
+                    search(randomDay());
+                    break;
+                case RESERVE:
+                    if (current == null) {
+                        login();
+                    }
+                    String vaccine = vaccineNames.get(random.nextInt(vaccineNames.size()));
+                    try {
+                        service.reserve(current, randomDay(), vaccine).join();
+                    } catch (CompletionException e) {
+                        // running out of caregivers or doses is an expected outcome, not an error
+                        if (!(AsyncSchedulerService.cause(e) instanceof IllegalStateException)) {
+                            throw e;
+                        }
+                    }
+                    break;
+                case SHOW_APPOINTMENTS:
+                    if (current == null) {
+                        login();
+                    }
+                    showAppointments(current.getUsername());
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+
+        private void login() throws SQLException {
+            String username = patientNames.get(random.nextInt(patientNames.size()));
+            current = new Patient.PatientGetter(username, PASSWORD).get();
+            if (current == null) {
+                throw new SQLException("Login failed for " + username);
+            }
+        }
+
+        private Date randomDay() {
+            return Date.valueOf(FIRST_DAY.plusDays(random.nextInt(days)));
+        }
+    }
+
+    // what search_caregiver_schedule reads for one day without a snapshot
+    private static void search(Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            drain(Availability.prepareFreeOn(con, d, false).executeQuery());
+            drain(con.prepareStatement(Vaccine.GET_ALL).executeQuery());
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // what show_appointments reads for a patient, current and archived
+    private void showAppointments(String username) throws SQLException {
+        archive.forEachForPatient(username, appointment -> { });
+    }
+
+    private static void drain(ResultSet resultSet) throws SQLException {
+        while (resultSet.next()) {
+            resultSet.getObject(1);
+        }
+    }
+}
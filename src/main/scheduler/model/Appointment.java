@@ -0,0 +1,176 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.event.EventOutbox;
+import scheduler.event.EventType;
+
+import java.sql.*;
+
+public class Appointment {
+
+    public static final String INSERT_APPOINTMENT = "INSERT INTO Appointments (caregiver_name, vaccine_name, " +
+            "patient_name, app_time, Site, Request_token) VALUES (?, ?, ?, ?, ?, ?)";
+    public static final String GET_BY_REQUEST_TOKEN = "SELECT app_id, caregiver_name, vaccine_name, patient_name, " +
+            "app_time, Site, Request_token FROM Appointments WHERE Request_token = ?";
+    public static final String GET_BY_ID = "SELECT app_id, caregiver_name, vaccine_name, patient_name, " +
+            "app_time, Site, Request_token FROM Appointments WHERE app_id = ?";
+    public static final String DELETE_BY_ID = "DELETE FROM Appointments WHERE app_id = ?";
+
+    // app_id from the Appointments identity column, -1 until the appointment is saved
+    private int id = -1;
+    private final String caregiverName;
+    private final String vaccineName;
+    private final String patientName;
+    private final Date time;
+    private final String site;
+    // client-chosen id of the reserve request that booked the appointment, null if none
+    private final String requestToken;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.caregiverName = builder.caregiverName;
+        this.vaccineName = builder.vaccineName;
+        this.patientName = builder.patientName;
+        this.time = builder.time;
+        this.site = builder.site;
+        this.requestToken = builder.requestToken;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    public String getRequestToken() {
+        return requestToken;
+    }
+
+    // Inserts the appointment and its AppointmentBooked event in one transaction
+    public void saveToDB() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            saveToDB(con);
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            this.id = -1;
+            e.printStackTrace();
+            throw new SQLException("Error occurred when adding appointments!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Inserts the appointment and its event as part of the caller's transaction
+    public void saveToDB(Connection con) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(INSERT_APPOINTMENT, Statement.RETURN_GENERATED_KEYS);
+        statement.setString(1, this.caregiverName);
+        statement.setString(2, this.vaccineName);
+        statement.setString(3, this.patientName);
+        statement.setDate(4, this.time);
+        statement.setString(5, this.site);
+        statement.setString(6, this.requestToken);
+        statement.executeUpdate();
+        ResultSet keys = statement.getGeneratedKeys();
+        keys.next();
+        int appId = keys.getInt(1);
+        EventOutbox.append(con, EventType.APPOINTMENT_BOOKED, EventOutbox.payload("app_id", appId,
+                "caregiver", this.caregiverName, "vaccine", this.vaccineName, "patient", this.patientName,
+                "date", this.time, "site", this.site));
+        this.id = appId;
+    }
+
+    // The appointment booked by the reserve request with this token, null if there is none
+    public static Appointment findByRequestToken(String requestToken) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            return findByRequestToken(con, requestToken);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when searching appointments!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static Appointment findByRequestToken(Connection con, String requestToken) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(GET_BY_REQUEST_TOKEN);
+        statement.setString(1, requestToken);
+        ResultSet resultSet = statement.executeQuery();
+        if (!resultSet.next()) {
+            return null;
+        }
+        AppointmentBuilder builder = new AppointmentBuilder(resultSet.getString("caregiver_name"),
+                resultSet.getString("vaccine_name"), resultSet.getString("patient_name"),
+                resultSet.getDate("app_time"), resultSet.getString("Site")).requestToken(requestToken);
+        Appointment appointment = builder.build();
+        appointment.id = resultSet.getInt("app_id");
+        return appointment;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "id=" + id +
+                ", caregiverName='" + caregiverName + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", patientName='" + patientName + '\'' +
+                ", time=" + time +
+                ", site='" + site + '\'' +
+                ", requestToken='" + requestToken + '\'' +
+                '}';
+    }
+
+    public static class AppointmentBuilder {
+        private final String caregiverName;
+        private final String vaccineName;
+        private final String patientName;
+        private final Date time;
+        private final String site;
+        private String requestToken = null;
+
+        public AppointmentBuilder(Availability availability, String vaccineName, String patientName) {
+            this(availability.getUsername(), vaccineName, patientName, availability.getTime(), availability.getSite());
+        }
+
+        private AppointmentBuilder(String caregiverName, String vaccineName, String patientName, Date time,
+                                   String site) {
+            this.caregiverName = caregiverName;
+            this.vaccineName = vaccineName;
+            this.patientName = patientName;
+            this.time = time;
+            this.site = site;
+        }
+
+        public AppointmentBuilder requestToken(String requestToken) {
+            this.requestToken = requestToken;
+            return this;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Availability {
+
+    public static final String INSERT_AVAILABILITY = "INSERT INTO Availabilities (Time, Username, Site) VALUES (? , ?, ?)";
+    public static final String DELETE_AVAILABILITY = "DELETE FROM Availabilities WHERE Username = ? AND Time = ?";
+    public static final String FREE_BETWEEN = "SELECT Time, Username, Site FROM Availabilities " +
+            "WHERE Time BETWEEN ? AND ? ORDER BY Time, Username";
+    public static final String FREE_ON = "SELECT Username, Site FROM Availabilities WHERE Time = ? ORDER BY Username";
+    public static final String FIRST_FREE_ON = "SELECT TOP 1 Username, Site FROM Availabilities " +
+            "WHERE Time = ? ORDER BY Username";
+    public static final String GET_ALL = "SELECT Time, Username, Site FROM Availabilities";
+
+    private final Date time;
+    private final String username;
+    private final String site;
+
+    private Availability(AvailabilityGetter getter) {
+        this(getter.time, getter.username, getter.site);
+    }
+
+    public Availability(Date time, String username, String site) {
+        this.time = time;
+        this.username = username;
+        this.site = site;
+    }
+
+    // Getters
+    public Date getTime() {
+        return time;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    // The statements below go to the Availabilities table, or to the per-year bitsets when
+    // AvailabilityCalendar is enabled, so callers can use either store through one connection
+
+    // Marks the caregiver available on d
+    public static void add(Connection con, String username, String site, Date d) throws SQLException {
+        if (AvailabilityCalendar.enabled()) {
+            AvailabilityCalendar.add(con, username, site, d);
+            return;
+        }
+        PreparedStatement statement = con.prepareStatement(INSERT_AVAILABILITY);
+        statement.setDate(1, d);
+        statement.setString(2, username);
+        statement.setString(3, site);
+        statement.executeUpdate();
+    }
+
+    // Takes the caregiver's day away; returns false if it was not available
+    public static boolean remove(Connection con, String username, Date d) throws SQLException {
+        if (AvailabilityCalendar.enabled()) {
+            return AvailabilityCalendar.remove(con, username, d);
+        }
+        PreparedStatement statement = con.prepareStatement(DELETE_AVAILABILITY);
+        statement.setString(1, username);
+        statement.setDate(2, d);
+        return statement.executeUpdate() == 1;
+    }
+
+    // Username and Site of the caregivers available on d, by username; only the first one if firstOnly
+    public static PreparedStatement prepareFreeOn(Connection con, Date d, boolean firstOnly) throws SQLException {
+        if (AvailabilityCalendar.enabled()) {
+            return AvailabilityCalendar.prepareFreeOn(con, d, firstOnly);
+        }
+        PreparedStatement statement = con.prepareStatement(firstOnly ? FIRST_FREE_ON : FREE_ON);
+        statement.setDate(1, d);
+        return statement;
+    }
+
+    // Every availability with a date in [from, to], ordered by date and username, with one query
+    public static List<Availability> freeBetween(Connection con, Date from, Date to) throws SQLException {
+        if (AvailabilityCalendar.enabled()) {
+            return AvailabilityCalendar.freeBetween(con, from, to);
+        }
+        PreparedStatement statement = con.prepareStatement(FREE_BETWEEN);
+        statement.setDate(1, from);
+        statement.setDate(2, to);
+        ResultSet resultSet = statement.executeQuery();
+        List<Availability> availabilities = new ArrayList<>();
+        while (resultSet.next()) {
+            availabilities.add(new Availability(resultSet.getDate("Time"), resultSet.getString("Username"),
+                    resultSet.getString("Site")));
+        }
+        return availabilities;
+    }
+
+    @Override
+    public String toString() {
+        return "Availability{" +
+                "time=" + time +
+                ", username='" + username + '\'' +
+                ", site='" + site + '\'' +
+                '}';
+    }
+
+    // Finds an available caregiver on the given date, null if there is none
+    public static class AvailabilityGetter {
+        private final Date time;
+        private String username;
+        private String site;
+
+        public AvailabilityGetter(Date time) {
+            this.time = time;
+        }
+
+        public Availability get() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+
+            try {
+                PreparedStatement statement = prepareFreeOn(con, this.time, true);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    this.username = resultSet.getString("Username");
+                    this.site = resultSet.getString("Site");
+                    return new Availability(this);
+                }
+                return null;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                throw new SQLException("Error occurred when searching availabilities!", e);
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+}
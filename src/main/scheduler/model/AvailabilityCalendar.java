@@ -0,0 +1,245 @@
+package scheduler.model;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compact availability store: one AvailabilityCalendars row per caregiver per year, where bit
+// (day of year - 1) of the words W0..W5 is set when the caregiver is free that day. 366 days fit in
+// six bigint words, so a caregiver-year is one ~60 byte row instead of up to 366 Availabilities rows.
+// Every update touches exactly one word with a single atomic statement (W = W | mask to add a day,
+// W = W & ~mask to take it).
+//
+// A bit test cannot use an index, so "who is free on D" is answered from AvailabilityDays instead, the
+// same bits transposed to one row per day per block of DAY_BLOCK caregivers by Caregivers.Id. add and
+// remove update both in the caller's transaction.
+//
+// Enabled by setting the AvailabilityStore environment variable to "calendar"; the Availabilities
+// table stays the default. AvailabilityMigration converts between the two.
+public class AvailabilityCalendar {
+
+    public static final int WORDS = 6;
+    private static final int DUPLICATE_KEY = 2627;
+
+    // AvailabilityDays rows hold 63 caregivers each, so POWER(2, bit) stays a positive bigint
+
+    public static final String SET_DAY_BIT = "MERGE AvailabilityDays WITH (HOLDLOCK) AS t " +
+            "USING (SELECT ? AS Day, Id / 63 AS Block, POWER(CAST(2 AS bigint), Id % 63) AS Mask " +
+            "FROM Caregivers WHERE Username = ?) AS s " +
+            "ON t.Day = s.Day AND t.Block = s.Block " +
+            "WHEN MATCHED THEN UPDATE SET Bits = t.Bits | s.Mask " +
+            "WHEN NOT MATCHED THEN INSERT (Day, Block, Bits) VALUES (s.Day, s.Block, s.Mask);";
+    public static final String CLEAR_DAY_BIT = "UPDATE d SET Bits = d.Bits & ~POWER(CAST(2 AS bigint), c.Id % 63) " +
+            "FROM AvailabilityDays d JOIN Caregivers c ON c.Username = ? " +
+            "WHERE d.Day = ? AND d.Block = c.Id / 63";
+    private static final String SELECT_FREE_ON = "c.Username, c.Site FROM AvailabilityDays d " +
+            "JOIN Caregivers c ON c.Id BETWEEN d.Block * 63 AND d.Block * 63 + 62 " +
+            "WHERE d.Day = ? AND d.Bits <> 0 AND d.Bits & POWER(CAST(2 AS bigint), c.Id - d.Block * 63) <> 0 " +
+            "ORDER BY c.Username";
+    public static final String FREE_ON = "SELECT " + SELECT_FREE_ON;
+    public static final String FIRST_FREE_ON = "SELECT TOP 1 " + SELECT_FREE_ON;
+    // recomputes AvailabilityDays from the calendars; bit 63 of a word is its sign
+    public static final String REBUILD_DAYS = "DELETE FROM AvailabilityDays; " +
+            "INSERT INTO AvailabilityDays (Day, Block, Bits) " +
+            "SELECT DATEADD(day, n.i, DATEFROMPARTS(a.Year, 1, 1)), c.Id / 63, SUM(POWER(CAST(2 AS bigint), c.Id % 63)) " +
+            "FROM AvailabilityCalendars a JOIN Caregivers c ON c.Username = a.Username " +
+            "CROSS JOIN (SELECT TOP 366 ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) - 1 AS i FROM sys.all_columns) n " +
+            "CROSS APPLY (SELECT CASE n.i / 64 WHEN 0 THEN a.W0 WHEN 1 THEN a.W1 WHEN 2 THEN a.W2 WHEN 3 THEN a.W3 " +
+            "WHEN 4 THEN a.W4 ELSE a.W5 END AS W) w " +
+            "WHERE CASE WHEN n.i % 64 = 63 THEN CASE WHEN w.W < 0 THEN 1 ELSE 0 END " +
+            "ELSE w.W & POWER(CAST(2 AS bigint), n.i % 64) END <> 0 " +
+            "GROUP BY DATEADD(day, n.i, DATEFROMPARTS(a.Year, 1, 1)), c.Id / 63";
+    public static final String GET_CALENDAR = "SELECT W0, W1, W2, W3, W4, W5 FROM AvailabilityCalendars " +
+            "WHERE Username = ? AND Year = ?";
+    public static final String CALENDARS_BETWEEN = "SELECT Username, Year, Site, W0, W1, W2, W3, W4, W5 " +
+            "FROM AvailabilityCalendars WHERE Year BETWEEN ? AND ? ORDER BY Username";
+    public static final String COUNT_CALENDARS_BETWEEN = "SELECT Username, Year, W0, W1, W2, W3, W4, W5 " +
+            "FROM AvailabilityCalendars WHERE Year BETWEEN ? AND ?";
+    public static final String GET_ALL = "SELECT Username, Year, Site, W0, W1, W2, W3, W4, W5 FROM AvailabilityCalendars";
+    private static final String[] WORD_COLUMNS = {"W0", "W1", "W2", "W3", "W4", "W5"};
+
+    private AvailabilityCalendar() {
+    }
+
+    public static boolean enabled() {
+        return "calendar".equalsIgnoreCase(System.getenv("AvailabilityStore"));
+    }
+
+    // bit index of a date within its year's calendar
+    static int dayIndex(LocalDate day) {
+        return day.getDayOfYear() - 1;
+    }
+
+    public static String wordColumn(int dayIndex) {
+        return WORD_COLUMNS[dayIndex >>> 6];
+    }
+
+    public static long mask(int dayIndex) {
+        return 1L << (dayIndex & 63);
+    }
+
+    // Marks the caregiver free on d, creating the year's row if needed. Like the primary key of
+    // Availabilities, throws an SQLException with error 2627 if the caregiver is already free that day.
+    public static void add(Connection con, String username, String site, Date d) throws SQLException {
+        LocalDate day = d.toLocalDate();
+        String word = wordColumn(dayIndex(day));
+        PreparedStatement statement = con.prepareStatement(setDay(word));
+        long mask = mask(dayIndex(day));
+        statement.setString(1, username);
+        statement.setInt(2, day.getYear());
+        statement.setLong(3, mask);
+        statement.setString(4, site);
+        statement.setLong(5, mask);
+        ResultSet resultSet = statement.executeQuery();
+        // the word before the update, NULL for a new row
+        if (resultSet.next() && (resultSet.getLong("Previous") & mask) != 0) {
+            throw new SQLException("Violation of PRIMARY KEY constraint: " + username + " is already available on " +
+                    d + "!", "23000", DUPLICATE_KEY);
+        }
+        statement = con.prepareStatement(SET_DAY_BIT);
+        statement.setDate(1, d);
+        statement.setString(2, username);
+        statement.executeUpdate();
+    }
+
+    // Clears the caregiver's bit for d; returns false if it was not set, i.e. somebody else took the day
+    public static boolean remove(Connection con, String username, Date d) throws SQLException {
+        LocalDate day = d.toLocalDate();
+        String word = wordColumn(dayIndex(day));
+        PreparedStatement statement = con.prepareStatement(clearDay(word));
+        long mask = mask(dayIndex(day));
+        statement.setLong(1, ~mask);
+        statement.setString(2, username);
+        statement.setInt(3, day.getYear());
+        statement.setLong(4, mask);
+        if (statement.executeUpdate() != 1) {
+            return false;
+        }
+        statement = con.prepareStatement(CLEAR_DAY_BIT);
+        statement.setString(1, username);
+        statement.setDate(2, d);
+        statement.executeUpdate();
+        return true;
+    }
+
+    // Username and Site of every caregiver free on d, by username; only the first one if firstOnly.
+    // Seeks AvailabilityDays on the day, then Caregivers on the Id range of each block.
+    public static PreparedStatement prepareFreeOn(Connection con, Date d, boolean firstOnly) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(firstOnly ? FIRST_FREE_ON : FREE_ON);
+        statement.setDate(1, d);
+        return statement;
+    }
+
+    // the MERGE takes a range lock with HOLDLOCK, so two uploads cannot both insert the year's row
+    public static String setDay(String word) {
+        return "MERGE AvailabilityCalendars WITH (HOLDLOCK) AS t " +
+                "USING (SELECT ? AS Username, ? AS Year) AS s " +
+                "ON t.Username = s.Username AND t.Year = s.Year " +
+                "WHEN MATCHED THEN UPDATE SET " + word + " = t." + word + " | ? " +
+                "WHEN NOT MATCHED THEN INSERT (Username, Year, Site, " + word + ") VALUES (s.Username, s.Year, ?, ?) " +
+                "OUTPUT deleted." + word + " AS Previous;";
+    }
+
+    public static String clearDay(String word) {
+        return "UPDATE AvailabilityCalendars SET " + word + " = " + word + " & ? " +
+                "WHERE Username = ? AND Year = ? AND " + word + " & ? <> 0";
+    }
+
+    // Every day of the year the caregiver is free
+    public static List<Date> freeDays(Connection con, String username, int year) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(GET_CALENDAR);
+        statement.setString(1, username);
+        statement.setInt(2, year);
+        ResultSet resultSet = statement.executeQuery();
+        List<Date> days = new ArrayList<>();
+        if (resultSet.next()) {
+            long[] words = readWords(resultSet);
+            LocalDate first = LocalDate.of(year, 1, 1);
+            for (int w = 0; w < WORDS; w++) {
+                // visit set bits only, lowest first
+                for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                    days.add(Date.valueOf(first.plusDays(w * 64 + Long.numberOfTrailingZeros(bits))));
+                }
+            }
+        }
+        return days;
+    }
+
+    // Every free (day, caregiver) in [from, to], ordered by date and username
+    public static List<Availability> freeBetween(Connection con, Date from, Date to) throws SQLException {
+        LocalDate start = from.toLocalDate();
+        LocalDate end = to.toLocalDate();
+        PreparedStatement statement = con.prepareStatement(CALENDARS_BETWEEN);
+        statement.setInt(1, start.getYear());
+        statement.setInt(2, end.getYear());
+        ResultSet resultSet = statement.executeQuery();
+        List<Availability> availabilities = new ArrayList<>();
+        while (resultSet.next()) {
+            LocalDate first = LocalDate.of(resultSet.getInt("Year"), 1, 1);
+            long[] words = readWords(resultSet);
+            for (int w = 0; w < WORDS; w++) {
+                for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                    LocalDate day = first.plusDays(w * 64 + Long.numberOfTrailingZeros(bits));
+                    if (!day.isBefore(start) && !day.isAfter(end)) {
+                        availabilities.add(new Availability(Date.valueOf(day), resultSet.getString("Username"),
+                                resultSet.getString("Site")));
+                    }
+                }
+            }
+        }
+        // rows come by username, the callers want them by date first
+        availabilities.sort(Comparator.comparing(Availability::getTime));
+        return availabilities;
+    }
+
+    // Number of free days per caregiver in [from, to]
+    public static Map<String, Integer> countFreeDays(Connection con, Date from, Date to) throws SQLException {
+        LocalDate start = from.toLocalDate();
+        LocalDate end = to.toLocalDate();
+        PreparedStatement statement = con.prepareStatement(COUNT_CALENDARS_BETWEEN);
+        statement.setInt(1, start.getYear());
+        statement.setInt(2, end.getYear());
+        ResultSet resultSet = statement.executeQuery();
+        Map<String, Integer> counts = new TreeMap<>();
+        while (resultSet.next()) {
+            int year = resultSet.getInt("Year");
+            int lo = year == start.getYear() ? dayIndex(start) : 0;
+            int hi = year == end.getYear() ? dayIndex(end) : WORDS * 64 - 1;
+            int free = countBits(readWords(resultSet), lo, hi);
+            counts.merge(resultSet.getString("Username"), free, Integer::sum);
+        }
+        return counts;
+    }
+
+    // set bits with index in [lo, hi], masking the partial words at both ends
+    static int countBits(long[] words, int lo, int hi) {
+        int count = 0;
+        for (int w = lo >>> 6; w <= hi >>> 6; w++) {
+            long bits = words[w];
+            if (w == lo >>> 6) {
+                bits &= -1L << (lo & 63);
+            }
+            if (w == hi >>> 6) {
+                bits &= -1L >>> (63 - (hi & 63));
+            }
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    public static long[] readWords(ResultSet resultSet) throws SQLException {
+        long[] words = new long[WORDS];
+        for (int w = 0; w < WORDS; w++) {
+            words[w] = resultSet.getLong(WORD_COLUMNS[w]);
+        }
+        return words;
+    }
+}
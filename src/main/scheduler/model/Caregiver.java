@@ -1,26 +1,45 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+import scheduler.event.EventOutbox;
+import scheduler.event.EventType;
 import scheduler.util.Util;
 
 import java.sql.*;
 import java.util.Arrays;
 
 public class Caregiver {
+
+    public static final String INSERT_CAREGIVER = "INSERT INTO Caregivers (Username, Salt, Hash, Site) VALUES (? , ?, ?, ?)";
+    public static final String UPDATE_LOCATION = "UPDATE Caregivers SET Latitude = ?, Longitude = ? WHERE Username = ?";
+    public static final String GET_BY_USERNAME = "SELECT Salt, Hash, Site, Latitude, Longitude FROM Caregivers " +
+            "WHERE Username = ?";
+    public static final String FIND_USERNAME = "SELECT Username FROM Caregivers WHERE Username = ?";
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // clinic site the caregiver works at, see ShardRouter
+    private final String site;
+    // where the caregiver works, null until set; see NearestAvailability
+    private Double latitude = null;
+    private Double longitude = null;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.site = builder.site;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.site = getter.site;
+        this.latitude = getter.latitude;
+        this.longitude = getter.longitude;
     }
 
     // Getters
@@ -36,36 +55,72 @@ public class Caregiver {
         return hash;
     }
 
+    public String getSite() {
+        return site;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
+            PreparedStatement statement = con.prepareStatement(INSERT_CAREGIVER);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
+            statement.setString(4, this.site);
             statement.executeUpdate();
         } catch (SQLException e) {
-            throw new SQLException();
+            throw new SQLException(e);
         } finally {
             cm.closeConnection();
         }
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
+    public void updateLocation(double latitude, double longitude) throws SQLException {
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("Latitude must be within [-90, 90] and longitude within [-180, 180]!");
+        }
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
+            PreparedStatement statement = con.prepareStatement(UPDATE_LOCATION);
+            statement.setDouble(1, latitude);
+            statement.setDouble(2, longitude);
+            statement.setString(3, this.username);
             statement.executeUpdate();
+            this.latitude = latitude;
+            this.longitude = longitude;
         } catch (SQLException e) {
-            throw new SQLException();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when updating location of " + username + "!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public void uploadAvailability(Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            Availability.add(con, this.username, this.site, d);
+            EventOutbox.append(con, EventType.AVAILABILITY_ADDED,
+                    EventOutbox.payload("caregiver", this.username, "date", d, "site", this.site));
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException(e);
         } finally {
             cm.closeConnection();
         }
@@ -81,7 +136,7 @@ public class Caregiver {
             statement.setString(2, this.username);
             statement.executeUpdate();
         } catch (SQLException e) {
-            throw new SQLException();
+            throw new SQLException(e);
         } finally {
             cm.closeConnection();
         }
@@ -91,6 +146,7 @@ public class Caregiver {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private String site = ShardRouter.homeSite();
 
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
             this.username = username;
@@ -98,6 +154,11 @@ public class Caregiver {
             this.hash = hash;
         }
 
+        public CaregiverBuilder site(String site) {
+            this.site = site;
+            return this;
+        }
+
         public Caregiver build() {
             return new Caregiver(this);
         }
@@ -108,6 +169,9 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private String site;
+        private Double latitude;
+        private Double longitude;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -118,9 +182,8 @@ public class Caregiver {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
+                PreparedStatement statement = con.prepareStatement(GET_BY_USERNAME);
                 statement.setString(1, this.username);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
@@ -135,12 +198,15 @@ public class Caregiver {
                     } else {
                         this.salt = salt;
                         this.hash = hash;
+                        this.site = resultSet.getString("Site");
+                        this.latitude = resultSet.getObject("Latitude") == null ? null : resultSet.getDouble("Latitude");
+                        this.longitude = resultSet.getObject("Longitude") == null ? null : resultSet.getDouble("Longitude");
                         return new Caregiver(this);
                     }
                 }
                 return null;
             } catch (SQLException e) {
-                throw new SQLException();
+                throw new SQLException(e);
             } finally {
                 cm.closeConnection();
             }
@@ -7,6 +7,20 @@ import java.sql.*;
 import java.util.Arrays;
 
 public class Patient {
+
+    public static final String INSERT_PATIENT = "INSERT INTO Patients (Username, Salt, Hash) VALUES (? , ?, ?)";
+    public static final String GET_BY_USERNAME = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
+    public static final String FIND_USERNAME = "SELECT Username FROM Patients WHERE Username = ?";
+
+    // the usernames among `count` parameters that are already taken
+    public static String findUsernames(int count) {
+        StringBuilder query = new StringBuilder("SELECT Username FROM Patients WHERE Username IN (");
+        for (int i = 0; i < count; i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        return query.append(')').toString();
+    }
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -40,16 +54,15 @@ public class Patient {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
+            PreparedStatement statement = con.prepareStatement(INSERT_PATIENT);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
             statement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
-            throw new SQLException("Error occurred when inserting patients!");
+            throw new SQLException("Error occurred when inserting patients!", e);
         } finally {
             cm.closeConnection();
         }
@@ -86,9 +99,8 @@ public class Patient {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
+                PreparedStatement statement = con.prepareStatement(GET_BY_USERNAME);
                 statement.setString(1, this.username);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
@@ -109,7 +121,7 @@ public class Patient {
                 return null;
             } catch (SQLException e) {
                 e.printStackTrace();
-                throw new SQLException("Error occurred when getting patient info!");
+                throw new SQLException("Error occurred when getting patient info!", e);
             } finally {
                 cm.closeConnection();
             }
@@ -1,24 +1,53 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.event.EventOutbox;
+import scheduler.event.EventType;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Vaccine {
+
+    public static final String INSERT_VACCINE = "INSERT INTO vaccines (Name, Doses, Interval_days) VALUES (?, ?, ?)";
+    public static final String UPDATE_INTERVAL = "UPDATE Vaccines SET Interval_days = ? WHERE Name = ?";
+    public static final String VERSIONED_UPDATE = "UPDATE Vaccines SET Doses = ?, Version = Version + 1 " +
+            "WHERE Name = ? AND Version = ?";
+    public static final String DELTA_UPDATE = "UPDATE Vaccines SET Doses = Doses + ?, Version = Version + 1 " +
+            "OUTPUT inserted.Doses, inserted.Version WHERE Name = ? AND Doses + ? >= 0";
+    public static final String GET_DOSES = "SELECT Doses, Version FROM Vaccines WHERE Name = ?";
+    public static final String GET_BY_NAME = "SELECT Name, Doses, Version, Interval_days FROM Vaccines WHERE Name = ?";
+    public static final String GET_ALL = "SELECT Name, Doses FROM Vaccines";
+
+    // optimistic writes tried before falling back to a relative update
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 3;
+    // vaccines with this many recent conflicts skip the optimistic path altogether
+    private static final int HOT_THRESHOLD = 8;
+    private static final Map<String, AtomicInteger> recentConflicts = new ConcurrentHashMap<>();
+
     private final String vaccineName;
     private int availableDoses;
+    // row version the availableDoses value was read at, bumped by every write
+    private int version = 0;
+    // days between the first and second dose of a two-dose series, 0 for a single-dose vaccine
+    private int intervalDays;
 
     private Vaccine(VaccineBuilder builder) {
         this.vaccineName = builder.vaccineName;
         this.availableDoses = builder.availableDoses;
+        this.intervalDays = builder.intervalDays;
     }
 
     private Vaccine(VaccineGetter getter) {
         this.vaccineName = getter.vaccineName;
         this.availableDoses = getter.availableDoses;
+        this.version = getter.version;
+        this.intervalDays = getter.intervalDays;
     }
 
     // Getters
@@ -30,18 +59,30 @@ public class Vaccine {
         return availableDoses;
     }
 
+    public int getIntervalDays() {
+        return intervalDays;
+    }
+
+    public boolean isSeries() {
+        return intervalDays > 0;
+    }
+
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(INSERT_VACCINE);
             statement.setString(1, this.vaccineName);
             statement.setInt(2, this.availableDoses);
+            statement.setInt(3, this.intervalDays);
             statement.executeUpdate();
+            publishAdjustment(con, this.availableDoses);
+            con.commit();
         } catch (SQLException e) {
-            throw new SQLException();
+            con.rollback();
+            throw new SQLException(e);
         } finally {
             cm.closeConnection();
         }
@@ -52,63 +93,179 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
+        adjustDoses(num);
+    }
+
+    // Decrement the available doses
+    public void decreaseAvailableDoses(int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        adjustDoses(-num);
+    }
+
+    // Takes doses as part of the caller's transaction, e.g. together with the appointments they are
+    // booked for; throws IllegalArgumentException if there are not enough
+    public void decreaseAvailableDoses(Connection con, int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        deltaUpdate(con, -num);
+        publishAdjustment(con, -num);
+    }
+
+    // Returns doses as part of the caller's transaction, e.g. together with the appointment being cancelled
+    public void increaseAvailableDoses(Connection con, int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        deltaUpdate(con, num);
+        publishAdjustment(con, num);
+    }
+
+    // Same, by name: a relative update on the caller's connection, so a transaction that already changed the
+    // row does not wait on itself through a second connection. Throws if the vaccine does not exist.
+    public static void increaseAvailableDoses(Connection con, String vaccineName, int num) throws SQLException {
+        new Vaccine(new VaccineBuilder(vaccineName, 0)).increaseAvailableDoses(con, num);
+    }
 
+    // Sets the interval between the two doses of the series, 0 to make it a single-dose vaccine
+    public void updateIntervalDays(int days) throws SQLException {
+        if (days < 0) {
+            throw new IllegalArgumentException("Interval cannot be negative!");
+        }
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
+            PreparedStatement statement = con.prepareStatement(UPDATE_INTERVAL);
+            statement.setInt(1, days);
             statement.setString(2, this.vaccineName);
             statement.executeUpdate();
+            this.intervalDays = days;
         } catch (SQLException e) {
-            throw new SQLException();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when updating interval of " + vaccineName + "!", e);
         } finally {
             cm.closeConnection();
         }
     }
 
-    // Decrement the available doses
-    public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
-        }
-        this.availableDoses -= num;
+    // Applies delta to the stored dose count without losing concurrent updates.
+    // Writes are version-stamped: the UPDATE only succeeds if nobody changed the row since it was read,
+    // otherwise the row is re-read and the write retried. Vaccines that keep conflicting are treated as hot
+    // and updated with a relative UPDATE instead, which cannot conflict.
+    private void adjustDoses(int delta) throws SQLException {
+        AtomicInteger conflicts = recentConflicts.computeIfAbsent(vaccineName, k -> new AtomicInteger());
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            con.setAutoCommit(false);
+            if (conflicts.get() < HOT_THRESHOLD) {
+                for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+                    if (this.availableDoses + delta < 0) {
+                        // the local count may be stale, only give up if the stored one agrees
+                        refresh(con);
+                        if (this.availableDoses + delta < 0) {
+                            throw new IllegalArgumentException("Not enough available doses!");
+                        }
+                    }
+                    if (tryVersionedUpdate(con, delta)) {
+                        publishAdjustment(con, delta);
+                        con.commit();
+                        // a clean write cools the vaccine down again
+                        conflicts.updateAndGet(c -> Math.max(0, c - 1));
+                        return;
+                    }
+                    conflicts.incrementAndGet();
+                    refresh(con);
+                }
+            }
+            deltaUpdate(con, delta);
+            publishAdjustment(con, delta);
+            con.commit();
         } catch (SQLException e) {
-            throw new SQLException();
+            con.rollback();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when updating doses of " + vaccineName + "!", e);
         } finally {
             cm.closeConnection();
         }
     }
 
+    // records the change in the event outbox, inside the caller's transaction
+    private void publishAdjustment(Connection con, int delta) throws SQLException {
+        EventOutbox.append(con, EventType.DOSES_ADJUSTED,
+                EventOutbox.payload("vaccine", this.vaccineName, "delta", delta, "doses", this.availableDoses));
+    }
+
+    private boolean tryVersionedUpdate(Connection con, int delta) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(VERSIONED_UPDATE);
+        statement.setInt(1, this.availableDoses + delta);
+        statement.setString(2, this.vaccineName);
+        statement.setInt(3, this.version);
+        if (statement.executeUpdate() == 1) {
+            this.availableDoses += delta;
+            this.version++;
+            return true;
+        }
+        return false;
+    }
+
+    // the database applies the delta itself and refuses to go below zero
+    private void deltaUpdate(Connection con, int delta) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(DELTA_UPDATE);
+        statement.setInt(1, delta);
+        statement.setString(2, this.vaccineName);
+        statement.setInt(3, delta);
+        ResultSet resultSet = statement.executeQuery();
+        if (!resultSet.next()) {
+            refresh(con);
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+        this.availableDoses = resultSet.getInt("Doses");
+        this.version = resultSet.getInt("Version");
+    }
+
+    private void refresh(Connection con) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(GET_DOSES);
+        statement.setString(1, this.vaccineName);
+        ResultSet resultSet = statement.executeQuery();
+        if (!resultSet.next()) {
+            throw new SQLException("Vaccine " + vaccineName + " no longer exists!");
+        }
+        this.availableDoses = resultSet.getInt("Doses");
+        this.version = resultSet.getInt("Version");
+    }
+
     @Override
     public String toString() {
         return "Vaccine{" +
                 "vaccineName='" + vaccineName + '\'' +
                 ", availableDoses=" + availableDoses +
+                ", version=" + version +
+                ", intervalDays=" + intervalDays +
                 '}';
     }
 
     public static class VaccineBuilder {
         private final String vaccineName;
         private int availableDoses;
+        private int intervalDays = 0;
 
         public VaccineBuilder(String vaccineName, int availableDoses) {
             this.vaccineName = vaccineName;
             this.availableDoses = availableDoses;
         }
 
+        public VaccineBuilder intervalDays(int intervalDays) {
+            if (intervalDays < 0) {
+                throw new IllegalArgumentException("Interval cannot be negative!");
+            }
+            this.intervalDays = intervalDays;
+            return this;
+        }
+
         public Vaccine build() throws SQLException {
             return new Vaccine(this);
         }
@@ -117,6 +274,8 @@ public class Vaccine {
     public static class VaccineGetter {
         private final String vaccineName;
         private int availableDoses;
+        private int version;
+        private int intervalDays;
 
         public VaccineGetter(String vaccineName) {
             this.vaccineName = vaccineName;
@@ -126,18 +285,19 @@ public class Vaccine {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
+                PreparedStatement statement = con.prepareStatement(GET_BY_NAME);
                 statement.setString(1, this.vaccineName);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
                     this.availableDoses = resultSet.getInt("Doses");
+                    this.version = resultSet.getInt("Version");
+                    this.intervalDays = resultSet.getInt("Interval_days");
                     return new Vaccine(this);
                 }
                 return null;
             } catch (SQLException e) {
-                throw new SQLException();
+                throw new SQLException(e);
             } finally {
                 cm.closeConnection();
             }
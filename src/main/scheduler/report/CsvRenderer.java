@@ -0,0 +1,72 @@
+package scheduler.report;
+
+import java.io.PrintWriter;
+
+// RFC 4180 style CSV: each table is a header line followed by its rows. Values containing a comma, quote
+// or line break are quoted. Messages and warnings become "#" comment lines so a reader can skip them.
+public class CsvRenderer extends Renderer {
+
+    public CsvRenderer(PrintWriter out) {
+        super(out);
+    }
+
+    @Override
+    public void message(String text) {
+        out.write("# ");
+        out.write(text);
+        out.write('\n');
+    }
+
+    @Override
+    public void warning(String text) {
+        out.write("# warning: ");
+        out.write(text);
+        out.write('\n');
+    }
+
+    @Override
+    public void begin(String title, String... columns) {
+        super.begin(title, columns);
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeString(columns[i]);
+        }
+        out.write('\n');
+    }
+
+    @Override
+    protected void separate() {
+        if (column > 0) {
+            out.write(',');
+        }
+    }
+
+    @Override
+    protected void writeString(String value) {
+        if (!needsQuotes(value)) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,227 @@
+package scheduler.report;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Vaccine;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Per-vaccine dose demand forecast.
+// The rate is an exponentially weighted moving average of the doses used per completed day, read from the
+// DailyVaccineUsage rollup. Only the last historyDays days are read, the ones whose weight is still above
+// MIN_WEIGHT, so a forecast is one index range of a few dozen rows and always reflects the rollup as it is
+// now, cancellations of earlier days included. A forecast compares that rate with the doses already booked
+// for the coming days and with the current stock.
+//
+// recentForecast() is for the reserve path: it returns the forecast the last background refresh computed
+// and never waits for the database.
+public class DoseForecaster {
+
+    // one vaccine's usage: completed days for the rate, the coming days for the bookings
+    public static final String GET_USAGE = "SELECT Day, Doses FROM DailyVaccineUsage " +
+            "WHERE Vaccine_name = ? AND Day >= ? AND Day < ? ORDER BY Day";
+    // longest forecast, a year; the bookings of every day are held in memory
+    public static final int MAX_DAYS = 366;
+
+    // weight of the most recent day, 0.3 gives an effective window of about a week
+    private static final double DEFAULT_ALPHA = 0.3;
+    // days that would weigh less than this in the average are not read
+    private static final double MIN_WEIGHT = 1e-4;
+    // a cached forecast older than this is recomputed in the background
+    private static final long REFRESH_MILLIS = 60_000;
+
+    private final double alpha;
+    private final int historyDays;
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    // vaccines with a background refresh queued or running
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "forecast-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DoseForecaster() {
+        this(DEFAULT_ALPHA);
+    }
+
+    public DoseForecaster(double alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("Alpha must be in (0, 1]!");
+        }
+        this.alpha = alpha;
+        // the day k days back weighs alpha * (1 - alpha)^k
+        this.historyDays = alpha == 1 ? 1 : (int) Math.ceil(Math.log(MIN_WEIGHT) / Math.log(1 - alpha)) + 1;
+    }
+
+    // Forecast for the next `days` days starting today, read from the database
+    public Forecast forecast(String vaccineName, int days, LocalDate today) throws SQLException {
+        if (days <= 0 || days > MAX_DAYS) {
+            throw new IllegalArgumentException("Days must be between 1 and " + MAX_DAYS + "!");
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        Rate rate = new Rate();
+        int[] booked = new int[days];
+        try {
+            PreparedStatement statement = con.prepareStatement(GET_USAGE);
+            statement.setString(1, vaccineName);
+            statement.setDate(2, Date.valueOf(today.minusDays(historyDays)));
+            statement.setDate(3, Date.valueOf(today.plusDays(days)));
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                long offset = resultSet.getDate("Day").toLocalDate().toEpochDay() - today.toEpochDay();
+                if (offset < 0) {
+                    rate.fold(today.toEpochDay() + offset, resultSet.getInt("Doses"), alpha);
+                } else {
+                    booked[(int) offset] = resultSet.getInt("Doses");
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reading dose history!", e);
+        } finally {
+            cm.closeConnection();
+        }
+        Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+        int stock = vaccine == null ? 0 : vaccine.getAvailableDoses();
+        return new Forecast(vaccineName, days, rate.decayedTo(today.toEpochDay() - 1, alpha), booked, stock);
+    }
+
+    // The forecast for the next `days` days as of the last background refresh, or null if there is none yet.
+    // Starts a refresh when that one is missing or older than REFRESH_MILLIS, but does not wait for it.
+    public Forecast recentForecast(String vaccineName, int days) {
+        Cached cached = cache.get(vaccineName);
+        boolean usable = cached != null && cached.forecast.getDays() == days;
+        if ((!usable || System.currentTimeMillis() - cached.computedMillis > REFRESH_MILLIS)
+                && refreshing.add(vaccineName)) {
+            refresher.execute(() -> {
+                try {
+                    cache.put(vaccineName, new Cached(forecast(vaccineName, days, LocalDate.now())));
+                } catch (SQLException e) {
+                    // runs in the background, so not through the session's renderer
+                    System.err.println("Error occurred when refreshing the forecast of " + vaccineName);
+                } finally {
+                    refreshing.remove(vaccineName);
+                }
+            });
+        }
+        return usable ? cached.forecast : null;
+    }
+
+    private static class Cached {
+        private final Forecast forecast;
+        private final long computedMillis = System.currentTimeMillis();
+
+        private Cached(Forecast forecast) {
+            this.forecast = forecast;
+        }
+    }
+
+    // EWMA state of one vaccine
+    private static class Rate {
+        private double ewma = 0.0;
+        private long lastDay = Long.MIN_VALUE;
+
+        private void fold(long day, int doses, double alpha) {
+            if (lastDay == Long.MIN_VALUE) {
+                ewma = doses;
+            } else {
+                // days without a rollup row used no doses
+                ewma = decayedTo(day - 1, alpha);
+                ewma = alpha * doses + (1 - alpha) * ewma;
+            }
+            lastDay = day;
+        }
+
+        private double decayedTo(long day, double alpha) {
+            if (lastDay == Long.MIN_VALUE) {
+                return 0.0;
+            }
+            long gap = day - lastDay;
+            return gap <= 0 ? ewma : ewma * Math.pow(1 - alpha, gap);
+        }
+    }
+
+    public static class Forecast {
+        private final String vaccineName;
+        private final int days;
+        private final double rate;
+        private final int booked;
+        private final double expectedDemand;
+        private final int stock;
+
+        private Forecast(String vaccineName, int days, double rate, int[] bookedPerDay, int stock) {
+            this.vaccineName = vaccineName;
+            this.days = days;
+            this.rate = rate;
+            this.stock = stock;
+            // a day is expected to use at least the smoothed rate; what is booked is already taken out of
+            // stock by reserve, so only the part of the rate above the bookings still needs doses
+            int booked = 0;
+            double expected = 0.0;
+            for (int dayBooked : bookedPerDay) {
+                booked += dayBooked;
+                expected += Math.max(0.0, rate - dayBooked);
+            }
+            this.booked = booked;
+            this.expectedDemand = expected;
+        }
+
+        // Getters
+        public String getVaccineName() {
+            return vaccineName;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public int getBooked() {
+            return booked;
+        }
+
+        public double getExpectedDemand() {
+            return expectedDemand;
+        }
+
+        public int getStock() {
+            return stock;
+        }
+
+        public boolean isLowStock() {
+            return expectedDemand > stock;
+        }
+
+        // whole days the current stock lasts at the smoothed rate
+        public double getDaysOfCover() {
+            return rate == 0.0 ? Double.POSITIVE_INFINITY : stock / rate;
+        }
+
+        @Override
+        public String toString() {
+            return "Forecast{" +
+                    "vaccineName='" + vaccineName + '\'' +
+                    ", days=" + days +
+                    ", rate=" + String.format("%.2f", rate) +
+                    ", booked=" + booked +
+                    ", expectedDemand=" + String.format("%.1f", expectedDemand) +
+                    ", stock=" + stock +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package scheduler.report;
+
+import java.io.PrintWriter;
+
+// One JSON object per line, for scripts and servers:
+//   {"message":"..."} and {"warning":"..."} for messages,
+//   {"table":"<title>","columns":[...]} to start a table, then one {"<column>":<value>,...} per row,
+//   and {"end":"<title>","rows":<n>} after its last row.
+// Numbers and booleans are written as JSON numbers and booleans, everything else as strings; a number
+// without a JSON spelling (NaN, infinity) is null.
+public class JsonLinesRenderer extends Renderer {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // "<column>": prefixes of the current table, escaped once per table instead of once per row
+    private String[] keys;
+
+    public JsonLinesRenderer(PrintWriter out) {
+        super(out);
+    }
+
+    @Override
+    public void message(String text) {
+        out.write("{\"message\":");
+        writeString(text);
+        out.write("}\n");
+    }
+
+    @Override
+    public void warning(String text) {
+        out.write("{\"warning\":");
+        writeString(text);
+        out.write("}\n");
+    }
+
+    @Override
+    public void begin(String title, String... columns) {
+        super.begin(title, columns);
+        out.write("{\"table\":");
+        writeString(title);
+        out.write(",\"columns\":[");
+        keys = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeString(columns[i]);
+            keys[i] = "\"" + escape(columns[i]) + "\":";
+        }
+        out.write("]}\n");
+    }
+
+    @Override
+    public void startRow() {
+        super.startRow();
+        out.write('{');
+    }
+
+    @Override
+    public void endRow() {
+        out.write('}');
+        super.endRow();
+    }
+
+    @Override
+    public void end() {
+        out.write("{\"end\":");
+        writeString(title);
+        out.write(",\"rows\":");
+        writeLong(rows);
+        out.write("}\n");
+        keys = null;
+        super.end();
+    }
+
+    @Override
+    protected void separate() {
+        if (column > 0) {
+            out.write(',');
+        }
+        out.write(keys[column]);
+    }
+
+    @Override
+    protected void writeString(String value) {
+        out.write('"');
+        if (needsEscape(value)) {
+            writeEscaped(value);
+        } else {
+            out.write(value);
+        }
+        out.write('"');
+    }
+
+    @Override
+    protected void writeNull() {
+        out.write("null");
+    }
+
+    private static boolean needsEscape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c == '\n') {
+                out.write("\\n");
+            } else if (c == '\r') {
+                out.write("\\r");
+            } else if (c == '\t') {
+                out.write("\\t");
+            } else if (c < 0x20) {
+                out.write("\\u00");
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xf]);
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c < 0x20 ? ' ' : c);
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package scheduler.report;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// Writes command results in one output format: messages, plus tables streamed a row at a time.
+// A session shares one buffered writer for everything it prints and flushes it once per command, so a
+// listing of thousands of rows costs a few large writes instead of one console write per line.
+// Cells are written straight into the buffer: numbers go through a reusable digit buffer and strings
+// are only copied when they need escaping, so streaming a table allocates next to nothing per row.
+//
+// Formats: text (the default, for people), jsonl (one JSON object per line) and csv.
+public abstract class Renderer {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    protected final PrintWriter out;
+    protected String title;
+    protected String[] columns;
+    // index of the next cell in the current row
+    protected int column;
+    protected long rows;
+    private final char[] digits = new char[20];
+
+    protected Renderer(PrintWriter out) {
+        this.out = out;
+    }
+
+    // The session writer over standard output; nothing reaches the console until it is flushed
+    public static PrintWriter console() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                BUFFER_SIZE), false);
+    }
+
+    public static Renderer forFormat(String format, PrintWriter out) {
+        switch (format) {
+            case "text":
+                return new TextRenderer(out);
+            case "jsonl":
+                return new JsonLinesRenderer(out);
+            case "csv":
+                return new CsvRenderer(out);
+            default:
+                throw new IllegalArgumentException("Unknown output format " + format + ", expected text, jsonl or csv");
+        }
+    }
+
+    // The format named by the OutputFormat environment variable, text if it is not set
+    public static Renderer fromEnvironment(PrintWriter out) {
+        String format = System.getenv("OutputFormat");
+        return forFormat(format == null ? "text" : format, out);
+    }
+
+    public PrintWriter getWriter() {
+        return out;
+    }
+
+    // whether the output is meant for a person at a terminal (greeting, prompts)
+    public boolean isInteractive() {
+        return false;
+    }
+
+    public void prompt() {
+    }
+
+    public abstract void message(String text);
+
+    public abstract void warning(String text);
+
+    // Starts a table; its rows follow as startRow, one cell per column, endRow
+    public void begin(String title, String... columns) {
+        this.title = title;
+        this.columns = columns;
+        this.rows = 0;
+    }
+
+    public void startRow() {
+        column = 0;
+    }
+
+    public void cell(String value) {
+        separate();
+        if (value == null) {
+            writeNull();
+        } else {
+            writeString(value);
+        }
+        column++;
+    }
+
+    public void cell(long value) {
+        separate();
+        writeLong(value);
+        column++;
+    }
+
+    public void cell(double value) {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // no format has a portable spelling for these
+            writeNull();
+        } else {
+            writeDouble(value);
+        }
+        column++;
+    }
+
+    public void cell(boolean value) {
+        separate();
+        out.write(value ? "true" : "false");
+        column++;
+    }
+
+    public void cell(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            cell(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            cell(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            cell(((Boolean) value).booleanValue());
+        } else {
+            cell(value == null ? null : value.toString());
+        }
+    }
+
+    public void endRow() {
+        if (column != columns.length) {
+            throw new IllegalStateException("Expected " + columns.length + " cells but got " + column);
+        }
+        out.write('\n');
+        rows++;
+    }
+
+    public void row(Object... values) {
+        startRow();
+        for (Object value : values) {
+            cell(value);
+        }
+        endRow();
+    }
+
+    public void end() {
+        columns = null;
+    }
+
+    public void flush() {
+        out.flush();
+    }
+
+    // written before every cell but the first of a row
+    protected abstract void separate();
+
+    protected abstract void writeString(String value);
+
+    protected void writeNull() {
+    }
+
+    // full precision, for the machine readable formats
+    protected void writeDouble(double value) {
+        out.write(Double.toString(value));
+    }
+
+    protected void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            out.write(Long.toString(value));
+            return;
+        }
+        boolean negative = value < 0;
+        long rest = negative ? -value : value;
+        int start = digits.length;
+        do {
+            digits[--start] = (char) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (negative) {
+            digits[--start] = '-';
+        }
+        out.write(digits, start, digits.length - start);
+    }
+}
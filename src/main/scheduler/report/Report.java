@@ -0,0 +1,80 @@
+package scheduler.report;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Tabular result of a report command, rendered in the session's output format or exported as CSV
+public class Report {
+    private final String title;
+    private final String[] header;
+    private final List<Object[]> rows = new ArrayList<>();
+
+    public Report(String title, String... header) {
+        this.title = title;
+        this.header = header;
+    }
+
+    public void addRow(Object... values) {
+        if (values.length != header.length) {
+            throw new IllegalArgumentException("Expected " + header.length + " values but got " + values.length);
+        }
+        rows.add(values.clone());
+    }
+
+    // Getters
+    public String getTitle() {
+        return title;
+    }
+
+    public String[] getHeader() {
+        return header.clone();
+    }
+
+    public List<Object[]> getRows() {
+        return rows;
+    }
+
+    // Streams the report through the session's renderer
+    public void render(Renderer renderer) {
+        if (rows.isEmpty()) {
+            renderer.message(title + ":");
+            renderer.message("No data for this period");
+            return;
+        }
+        renderer.begin(title, header);
+        for (Object[] row : rows) {
+            renderer.row(row);
+        }
+        renderer.end();
+    }
+
+    public void writeCsv(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            CsvRenderer csv = new CsvRenderer(out);
+            csv.begin(title, header);
+            for (Object[] row : rows) {
+                csv.row(row);
+            }
+            csv.end();
+            // PrintWriter swallows write errors
+            if (out.checkError()) {
+                throw new IOException("Error occurred when writing " + path);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Report{" +
+                "title='" + title + '\'' +
+                ", header=" + Arrays.toString(header) +
+                ", rows=" + rows.size() +
+                '}';
+    }
+}
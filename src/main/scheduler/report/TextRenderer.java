@@ -0,0 +1,70 @@
+package scheduler.report;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+// Human readable output: messages as lines, tables as a title line, a header and " | " separated rows.
+// Fractional numbers are rounded to two decimals.
+public class TextRenderer extends Renderer {
+
+    public TextRenderer(PrintWriter out) {
+        super(out);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return true;
+    }
+
+    @Override
+    public void prompt() {
+        out.write("> ");
+    }
+
+    @Override
+    public void message(String text) {
+        out.write(text);
+        out.write('\n');
+    }
+
+    @Override
+    public void warning(String text) {
+        message(text);
+    }
+
+    @Override
+    public void begin(String title, String... columns) {
+        super.begin(title, columns);
+        out.write(title);
+        out.write(":\n");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.write(" | ");
+            }
+            out.write(columns[i]);
+        }
+        out.write('\n');
+    }
+
+    @Override
+    protected void separate() {
+        if (column > 0) {
+            out.write(" | ");
+        }
+    }
+
+    @Override
+    protected void writeString(String value) {
+        out.write(value);
+    }
+
+    @Override
+    protected void writeDouble(double value) {
+        out.write(String.format(Locale.ROOT, "%.2f", value));
+    }
+
+    @Override
+    protected void writeNull() {
+        out.write('-');
+    }
+}
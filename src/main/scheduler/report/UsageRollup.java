@@ -0,0 +1,235 @@
+package scheduler.report;
+
+import scheduler.archive.AppointmentArchive;
+import scheduler.archive.AppointmentRecord;
+import scheduler.db.ConnectionManager;
+import scheduler.model.AvailabilityCalendar;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Incrementally maintained per-day counters behind the report commands.
+// reserve and cancel adjust DailyVaccineUsage (doses per day per vaccine) and DailyCaregiverLoad
+// (appointments per day per caregiver) in their own transaction, so reports read one row per day and key
+// instead of scanning Appointments, and a counter never disagrees with the appointments it counts.
+//
+// Usage: java scheduler.report.UsageRollup backfill
+// rebuilds both counters from the appointments, once for a database that had appointments before them.
+public class UsageRollup {
+
+    // HOLDLOCK keeps the key range locked from the match to the insert, so two first bookings of a day
+    // cannot both take the NOT MATCHED branch
+    public static final String UPDATE_VACCINE = "MERGE DailyVaccineUsage WITH (HOLDLOCK) AS t " +
+            "USING (SELECT ? AS Day, ? AS Vaccine_name) AS s " +
+            "ON t.Day = s.Day AND t.Vaccine_name = s.Vaccine_name " +
+            "WHEN MATCHED THEN UPDATE SET Doses = t.Doses + ? " +
+            "WHEN NOT MATCHED THEN INSERT (Day, Vaccine_name, Doses) VALUES (s.Day, s.Vaccine_name, ?);";
+    public static final String UPDATE_CAREGIVER = "MERGE DailyCaregiverLoad WITH (HOLDLOCK) AS t " +
+            "USING (SELECT ? AS Day, ? AS Caregiver_name) AS s " +
+            "ON t.Day = s.Day AND t.Caregiver_name = s.Caregiver_name " +
+            "WHEN MATCHED THEN UPDATE SET Appointments = t.Appointments + ? " +
+            "WHEN NOT MATCHED THEN INSERT (Day, Caregiver_name, Appointments) VALUES (s.Day, s.Caregiver_name, ?);";
+    public static final String GET_USAGE = "SELECT Day, Vaccine_name, Doses FROM DailyVaccineUsage " +
+            "WHERE Day BETWEEN ? AND ? AND Doses <> 0 ORDER BY Day, Vaccine_name";
+    public static final String GET_LOAD = "SELECT Day, Caregiver_name, Appointments FROM DailyCaregiverLoad " +
+            "WHERE Day BETWEEN ? AND ? AND Appointments <> 0 ORDER BY Day, Caregiver_name";
+    public static final String GET_BOOKED = "SELECT Caregiver_name, SUM(Appointments) AS Booked FROM DailyCaregiverLoad " +
+            "WHERE Day BETWEEN ? AND ? GROUP BY Caregiver_name";
+    public static final String GET_OPEN = "SELECT Username, COUNT(*) AS Open_days FROM Availabilities " +
+            "WHERE Time BETWEEN ? AND ? GROUP BY Username";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private UsageRollup() {
+    }
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length != 1 || !args[0].equals("backfill")) {
+            System.out.println("Usage: UsageRollup backfill");
+            return;
+        }
+        System.out.println("Rebuilt usage counters from " + backfill() + " appointments");
+    }
+
+    // Adds delta (1 on reserve, -1 on cancel) to both counters of the appointment's day, as part of the
+    // caller's transaction. Callers do this before inserting or deleting the appointment, see backfill().
+    public static void record(Connection con, Date day, String vaccineName, String caregiverName, int delta)
+            throws SQLException {
+        merge(con, UPDATE_VACCINE, day, vaccineName, delta);
+        merge(con, UPDATE_CAREGIVER, day, caregiverName, delta);
+    }
+
+    private static void merge(Connection con, String query, Date day, String key, int delta) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(query);
+        statement.setDate(1, day);
+        statement.setString(2, key);
+        statement.setInt(3, delta);
+        statement.setInt(4, delta);
+        statement.executeUpdate();
+    }
+
+    // Recomputes both counters from every appointment, current and archived; returns how many were counted.
+    // The counter tables stay locked for the whole rebuild. A booking or cancellation updates the counters
+    // before it touches Appointments, so one in flight has either not changed Appointments yet and waits
+    // for the lock, or holds counter rows and is waited for, and is counted exactly once either way.
+    public static int backfill() throws SQLException {
+        ConnectionManager cm = ConnectionManager.forMaintenance();
+        Connection con = cm.createConnection();
+
+        String lockVaccine = "SELECT TOP 0 Day FROM DailyVaccineUsage WITH (TABLOCKX, HOLDLOCK)";
+        String lockCaregiver = "SELECT TOP 0 Day FROM DailyCaregiverLoad WITH (TABLOCKX, HOLDLOCK)";
+        String addVaccine = "INSERT INTO DailyVaccineUsage (Day, Vaccine_name, Doses) VALUES (?, ?, ?)";
+        String addCaregiver = "INSERT INTO DailyCaregiverLoad (Day, Caregiver_name, Appointments) VALUES (?, ?, ?)";
+        try {
+            con.setAutoCommit(false);
+            con.prepareStatement(lockVaccine).executeQuery();
+            con.prepareStatement(lockCaregiver).executeQuery();
+            // (day, name) -> count
+            Map<List<Object>, Integer> doses = new HashMap<>();
+            Map<List<Object>, Integer> load = new HashMap<>();
+            List<AppointmentRecord> appointments = new AppointmentArchive()
+                    .between(Date.valueOf(LocalDate.of(1900, 1, 1)), Date.valueOf(LocalDate.of(9999, 12, 31)));
+            for (AppointmentRecord appointment : appointments) {
+                // the name columns are nullable, but the counters are keyed by them
+                if (appointment.getVaccineName() != null) {
+                    doses.merge(List.of(appointment.getTime(), appointment.getVaccineName()), 1, Integer::sum);
+                }
+                if (appointment.getCaregiverName() != null) {
+                    load.merge(List.of(appointment.getTime(), appointment.getCaregiverName()), 1, Integer::sum);
+                }
+            }
+            con.prepareStatement("DELETE FROM DailyVaccineUsage").executeUpdate();
+            con.prepareStatement("DELETE FROM DailyCaregiverLoad").executeUpdate();
+            insertAll(con, addVaccine, doses);
+            insertAll(con, addCaregiver, load);
+            con.commit();
+            return appointments.size();
+        } catch (SQLException e) {
+            con.rollback();
+            e.printStackTrace();
+            throw new SQLException("Error occurred when rebuilding usage counters!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void insertAll(Connection con, String query, Map<List<Object>, Integer> counts) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(query);
+        int pending = 0;
+        for (Map.Entry<List<Object>, Integer> count : counts.entrySet()) {
+            statement.setDate(1, (Date) count.getKey().get(0));
+            statement.setString(2, (String) count.getKey().get(1));
+            statement.setInt(3, count.getValue());
+            statement.addBatch();
+            if (++pending % BATCH_SIZE == 0) {
+                statement.executeBatch();
+            }
+        }
+        statement.executeBatch();
+    }
+
+    // doses used per vaccine per day in [from, to]
+    public static Report dosesPerDay(Date from, Date to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        Report report = new Report("Doses used per vaccine per day", "day", "vaccine", "doses");
+        try {
+            PreparedStatement statement = con.prepareStatement(GET_USAGE);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                report.addRow(resultSet.getDate("Day"), resultSet.getString("Vaccine_name"), resultSet.getInt("Doses"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reading dose usage!", e);
+        } finally {
+            cm.closeConnection();
+        }
+        return report;
+    }
+
+    // appointments per caregiver per day in [from, to]
+    public static Report caregiverLoadPerDay(Date from, Date to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        Report report = new Report("Appointments per caregiver per day", "day", "caregiver", "appointments");
+        try {
+            PreparedStatement statement = con.prepareStatement(GET_LOAD);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                report.addRow(resultSet.getDate("Day"), resultSet.getString("Caregiver_name"),
+                        resultSet.getInt("Appointments"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reading caregiver load!", e);
+        } finally {
+            cm.closeConnection();
+        }
+        return report;
+    }
+
+    // share of each caregiver's offered days in [from, to] that got booked; the open days are the
+    // availabilities that are still left, since reserve removes the availability it books
+    public static Report caregiverUtilisation(Date from, Date to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // caregiver -> {booked, open}
+        Map<String, int[]> counts = new TreeMap<>();
+        try {
+            PreparedStatement booked = con.prepareStatement(GET_BOOKED);
+            booked.setDate(1, from);
+            booked.setDate(2, to);
+            ResultSet rsBooked = booked.executeQuery();
+            while (rsBooked.next()) {
+                counts.computeIfAbsent(rsBooked.getString("Caregiver_name"), k -> new int[2])[0] =
+                        rsBooked.getInt("Booked");
+            }
+            if (AvailabilityCalendar.enabled()) {
+                for (Map.Entry<String, Integer> free : AvailabilityCalendar.countFreeDays(con, from, to).entrySet()) {
+                    counts.computeIfAbsent(free.getKey(), k -> new int[2])[1] = free.getValue();
+                }
+            } else {
+                PreparedStatement open = con.prepareStatement(GET_OPEN);
+                open.setDate(1, from);
+                open.setDate(2, to);
+                ResultSet rsOpen = open.executeQuery();
+                while (rsOpen.next()) {
+                    counts.computeIfAbsent(rsOpen.getString("Username"), k -> new int[2])[1] =
+                            rsOpen.getInt("Open_days");
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reading caregiver utilisation!", e);
+        } finally {
+            cm.closeConnection();
+        }
+        Report report = new Report("Caregiver utilisation from " + from + " to " + to,
+                "caregiver", "appointments", "open days", "utilisation %");
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            int booked = entry.getValue()[0];
+            int open = entry.getValue()[1];
+            if (booked + open == 0) {
+                continue;
+            }
+            report.addRow(entry.getKey(), booked, open, 100.0 * booked / (booked + open));
+        }
+        return report;
+    }
+}
@@ -0,0 +1,430 @@
+package scheduler.service;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.RetryPolicy;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.report.UsageRollup;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking facade over the model layer.
+// Every operation returns a CompletableFuture and runs its JDBC round trip on the service executor, so
+// callers can compose operations and run independent lookups concurrently. Failures complete the
+// future exceptionally with the SQLException (or IllegalStateException for business rule failures).
+//
+// The executor uses virtual threads when the runtime has them (Java 21+); otherwise it falls back to a
+// fixed pool, which also bounds the connections open at once since each task holds one while it runs.
+public class AsyncSchedulerService implements AutoCloseable {
+
+    private static final int PLATFORM_THREADS = 16;
+    // caregivers to try when a concurrent booking claims the same availability first
+    private static final int MAX_CLAIM_ATTEMPTS = 5;
+    // days after the requested date on which the first dose of a series may fall
+    private static final int SERIES_SEARCH_DAYS = 14;
+
+    private final ExecutorService executor;
+    // only used for reads and for the token-guarded reserve, which are safe to repeat
+    private final RetryPolicy retry = RetryPolicy.defaults();
+
+    public AsyncSchedulerService() {
+        this(newExecutor());
+    }
+
+    public AsyncSchedulerService(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(PLATFORM_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "scheduler-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public CompletableFuture<Void> savePatient(Patient patient) {
+        return run(() -> {
+            patient.saveToDB();
+            return null;
+        });
+    }
+
+    // completes with null when the username or password is wrong
+    public CompletableFuture<Patient> getPatient(String username, String password) {
+        return runWithRetry(() -> new Patient.PatientGetter(username, password).get());
+    }
+
+    public CompletableFuture<Void> saveCaregiver(Caregiver caregiver) {
+        return run(() -> {
+            caregiver.saveToDB();
+            return null;
+        });
+    }
+
+    // completes with null when the username or password is wrong
+    public CompletableFuture<Caregiver> getCaregiver(String username, String password) {
+        return runWithRetry(() -> new Caregiver.CaregiverGetter(username, password).get());
+    }
+
+    public CompletableFuture<Void> uploadAvailability(Caregiver caregiver, Date d) {
+        return run(() -> {
+            caregiver.uploadAvailability(d);
+            return null;
+        });
+    }
+
+    // completes with null when there is no such vaccine
+    public CompletableFuture<Vaccine> getVaccine(String vaccineName) {
+        return runWithRetry(() -> new Vaccine.VaccineGetter(vaccineName).get());
+    }
+
+    public CompletableFuture<Vaccine> increaseAvailableDoses(Vaccine vaccine, int num) {
+        return run(() -> {
+            vaccine.increaseAvailableDoses(num);
+            return vaccine;
+        });
+    }
+
+    public CompletableFuture<Vaccine> decreaseAvailableDoses(Vaccine vaccine, int num) {
+        return run(() -> {
+            vaccine.decreaseAvailableDoses(num);
+            return vaccine;
+        });
+    }
+
+    // completes with null when nobody is available on that date
+    public CompletableFuture<Availability> findAvailability(Date d) {
+        return runWithRetry(() -> new Availability.AvailabilityGetter(d).get());
+    }
+
+    // Books one dose of the vaccine with any caregiver available on the date.
+    // The vaccine lookup and the caregiver search are independent and run concurrently; then the
+    // availability is claimed, the dose taken and the appointment saved in one transaction. Transient
+    // failures are retried under the request's token, which makes the retries idempotent.
+    public CompletableFuture<Appointment> reserve(Patient patient, Date d, String vaccineName) {
+        return reserve(patient, d, vaccineName, UUID.randomUUID().toString());
+    }
+
+    // As above, for a caller that retries on its own: reusing the token of a request that already
+    // booked returns that appointment instead of booking again
+    public CompletableFuture<Appointment> reserve(Patient patient, Date d, String vaccineName, String requestToken) {
+        return runWithRetry(() -> Appointment.findByRequestToken(requestToken)).thenCompose(existing -> {
+            if (existing != null) {
+                return CompletableFuture.completedFuture(existing);
+            }
+            return getVaccine(vaccineName)
+                    .thenCombine(findAvailability(d), (vaccine, availability) -> {
+                        if (vaccine == null || vaccine.getAvailableDoses() < 1) {
+                            throw new IllegalStateException(vaccineName + " is not available at this time. " +
+                                    "Check availability of other vaccines!");
+                        }
+                        if (availability == null) {
+                            throw new IllegalStateException("No caregiver is available on " + d +
+                                    ". Please try another date!");
+                        }
+                        return new Candidate(vaccine, availability);
+                    })
+                    .thenApplyAsync(candidate -> {
+                        try {
+                            return retry.call(() ->
+                                    book(patient, candidate.vaccine, candidate.availability, requestToken));
+                        } catch (SQLException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor);
+        });
+    }
+
+    // Claim, dose and insert commit or roll back together, so there is nothing to undo by hand: a failed
+    // attempt leaves the day free and the dose in stock, and a commit whose acknowledgement was lost has
+    // booked, which the retry finds by the token.
+    private static Appointment book(Patient patient, Vaccine vaccine, Availability availability, String requestToken)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            // an earlier attempt may have committed even though it reported a failure
+            Appointment existing = Appointment.findByRequestToken(con, requestToken);
+            if (existing != null) {
+                con.rollback();
+                return existing;
+            }
+            // another booking may claim the same caregiver between the search and the claim, try the next one
+            Date d = availability.getTime();
+            int attempts = 1;
+            while (!Availability.remove(con, availability.getUsername(), d)) {
+                availability = firstFree(con, d);
+                if (availability == null || ++attempts > MAX_CLAIM_ATTEMPTS) {
+                    con.rollback();
+                    throw new IllegalStateException("No caregiver is available on " + d + ". Please try another date!");
+                }
+            }
+            try {
+                vaccine.decreaseAvailableDoses(con, 1);
+            } catch (IllegalArgumentException e) {
+                con.rollback();
+                throw new IllegalStateException(vaccine.getVaccineName() + " is not available at this time. " +
+                        "Check availability of other vaccines!");
+            }
+            // counters first, see UsageRollup.backfill
+            UsageRollup.record(con, d, vaccine.getVaccineName(), availability.getUsername(), 1);
+            Appointment appointment = new Appointment.AppointmentBuilder(availability, vaccine.getVaccineName(),
+                    patient.getUsername()).requestToken(requestToken).build();
+            appointment.saveToDB(con);
+            con.commit();
+            return appointment;
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            // a concurrent attempt with the same token got there first
+            if (isDuplicateKey(e)) {
+                Appointment existing = Appointment.findByRequestToken(requestToken);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the caregiver search of AvailabilityGetter, inside the booking's transaction
+    private static Availability firstFree(Connection con, Date d) throws SQLException {
+        ResultSet resultSet = Availability.prepareFreeOn(con, d, true).executeQuery();
+        if (!resultSet.next()) {
+            return null;
+        }
+        return new Availability(d, resultSet.getString("Username"), resultSet.getString("Site"));
+    }
+
+    // the connection may be gone already, and the error being handled is the one to report
+    private static void rollbackQuietly(Connection con) {
+        try {
+            con.rollback();
+        } catch (SQLException ignored) {
+            // the server rolls back an open transaction when the connection closes
+        }
+    }
+
+    // Books both doses of a two-dose vaccine: the first on a day from d up to SERIES_SEARCH_DAYS later, the
+    // second the vaccine's interval after it. All availabilities of the window are read with one query and
+    // the date pairs are matched in memory; both days and both doses are then taken in one transaction,
+    // so the patient gets the whole series or nothing.
+    public CompletableFuture<List<Appointment>> reserveSeries(Patient patient, Date d, String vaccineName) {
+        String requestToken = UUID.randomUUID().toString();
+        return getVaccine(vaccineName).thenApplyAsync(vaccine -> {
+            if (vaccine == null || vaccine.getAvailableDoses() < 2) {
+                throw new IllegalStateException(vaccineName + " does not have two doses available at this time. " +
+                        "Check availability of other vaccines!");
+            }
+            if (!vaccine.isSeries()) {
+                throw new IllegalStateException(vaccineName + " is a single-dose vaccine, please use reserve!");
+            }
+            try {
+                return retry.call(() -> bookSeries(patient, vaccine, d, requestToken));
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private static List<Appointment> bookSeries(Patient patient, Vaccine vaccine, Date d, String requestToken)
+            throws SQLException {
+        // each dose carries its own token derived from the request's
+        String firstToken = requestToken + "/1";
+        String secondToken = requestToken + "/2";
+        Appointment first = Appointment.findByRequestToken(firstToken);
+        if (first != null) {
+            return List.of(first, Appointment.findByRequestToken(secondToken));
+        }
+        LocalDate start = d.toLocalDate();
+        int interval = vaccine.getIntervalDays();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            List<SeriesOption> options = seriesCandidates(Availability.freeBetween(con, d,
+                    Date.valueOf(start.plusDays(SERIES_SEARCH_DAYS - 1 + interval))), start, interval);
+            // up to MAX_CLAIM_ATTEMPTS first slots, and for each one up to MAX_CLAIM_ATTEMPTS second slots, so a
+            // taken first slot or a taken second slot never uses up the attempts of the other candidates
+            Availability[] chosen = null;
+            int firstAttempts = 0;
+            for (int i = 0; i < options.size() && chosen == null && firstAttempts < MAX_CLAIM_ATTEMPTS; i++) {
+                SeriesOption option = options.get(i);
+                firstAttempts++;
+                // the claim holds its lock until commit; undo it if none of its second slots can be claimed
+                Savepoint savepoint = con.setSavepoint();
+                if (!Availability.remove(con, option.first.getUsername(), option.first.getTime())) {
+                    continue;
+                }
+                List<Availability> seconds = option.seconds;
+                for (int j = 0; j < seconds.size() && j < MAX_CLAIM_ATTEMPTS && chosen == null; j++) {
+                    if (Availability.remove(con, seconds.get(j).getUsername(), seconds.get(j).getTime())) {
+                        chosen = new Availability[]{option.first, seconds.get(j)};
+                    }
+                }
+                if (chosen == null) {
+                    con.rollback(savepoint);
+                }
+            }
+            if (chosen == null) {
+                con.rollback();
+                throw new IllegalStateException("No caregivers are available for both doses between " + start +
+                        " and " + start.plusDays(SERIES_SEARCH_DAYS - 1 + interval) + ". Please try another date!");
+            }
+            try {
+                vaccine.decreaseAvailableDoses(con, 2);
+            } catch (IllegalArgumentException e) {
+                con.rollback();
+                throw new IllegalStateException(vaccine.getVaccineName() + " does not have two doses available at " +
+                        "this time. Check availability of other vaccines!");
+            }
+            // counters first, see UsageRollup.backfill
+            for (Availability availability : chosen) {
+                UsageRollup.record(con, availability.getTime(), vaccine.getVaccineName(), availability.getUsername(), 1);
+            }
+            first = new Appointment.AppointmentBuilder(chosen[0], vaccine.getVaccineName(), patient.getUsername())
+                    .requestToken(firstToken).build();
+            Appointment second = new Appointment.AppointmentBuilder(chosen[1], vaccine.getVaccineName(),
+                    patient.getUsername()).requestToken(secondToken).build();
+            first.saveToDB(con);
+            second.saveToDB(con);
+            con.commit();
+            return List.of(first, second);
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            e.printStackTrace();
+            throw new SQLException("Error occurred when reserving the vaccine series!", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Every free first-dose slot that has a second-dose slot the interval later, in the order to try them:
+    // earliest day first, and on each day those whose caregiver is also free for the second dose first.
+    // Each slot lists its second-dose slots with the same caregiver first.
+    private static List<SeriesOption> seriesCandidates(List<Availability> free, LocalDate start, int interval) {
+        Map<LocalDate, List<Availability>> byDay = new HashMap<>();
+        for (Availability availability : free) {
+            byDay.computeIfAbsent(availability.getTime().toLocalDate(), k -> new ArrayList<>()).add(availability);
+        }
+        List<SeriesOption> options = new ArrayList<>();
+        for (int offset = 0; offset < SERIES_SEARCH_DAYS; offset++) {
+            LocalDate day = start.plusDays(offset);
+            List<Availability> firsts = byDay.get(day);
+            List<Availability> seconds = byDay.get(day.plusDays(interval));
+            if (firsts == null || seconds == null) {
+                continue;
+            }
+            List<SeriesOption> sameCaregiver = new ArrayList<>();
+            List<SeriesOption> otherCaregiver = new ArrayList<>();
+            for (Availability a : firsts) {
+                SeriesOption option = new SeriesOption(a);
+                for (Availability b : seconds) {
+                    if (a.getUsername().equalsIgnoreCase(b.getUsername())) {
+                        option.seconds.add(0, b);
+                    } else {
+                        option.seconds.add(b);
+                    }
+                }
+                boolean same = option.seconds.get(0).getUsername().equalsIgnoreCase(a.getUsername());
+                (same ? sameCaregiver : otherCaregiver).add(option);
+            }
+            options.addAll(sameCaregiver);
+            options.addAll(otherCaregiver);
+        }
+        return options;
+    }
+
+    // a first-dose slot and the second-dose slots it can be paired with
+    private static class SeriesOption {
+        private final Availability first;
+        private final List<Availability> seconds = new ArrayList<>();
+
+        private SeriesOption(Availability first) {
+            this.first = first;
+        }
+    }
+
+    // unique index violation (SQL Server errors 2601 and 2627)
+    private static boolean isDuplicateKey(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                int code = ((SQLException) t).getErrorCode();
+                if (code == 2601 || code == 2627) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private <T> CompletableFuture<T> runWithRetry(SqlCall<T> call) {
+        return run(() -> retry.call(call::call));
+    }
+
+    private <T> CompletableFuture<T> run(SqlCall<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    // Unwraps the exception a failed future completed with
+    public static Throwable cause(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    // results of the two concurrent lookups of reserve
+    private static class Candidate {
+        private final Vaccine vaccine;
+        private final Availability availability;
+
+        private Candidate(Vaccine vaccine, Availability availability) {
+            this.vaccine = vaccine;
+            this.availability = availability;
+        }
+    }
+}
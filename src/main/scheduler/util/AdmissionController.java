@@ -0,0 +1,135 @@
+package scheduler.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Admission control in front of the command dispatcher.
+// Each limited command has a global token bucket, a token bucket per user and a bound on concurrent
+// executions. A request must pass all three; otherwise it is shed immediately with the time after
+// which it is worth retrying. Everything is CAS-based, so the controller never blocks a caller.
+public class AdmissionController {
+
+    // stale per-user buckets are dropped once the map grows past this many users
+    private static final int MAX_TRACKED_USERS = 100_000;
+
+    private final Map<String, Policy> policies = new ConcurrentHashMap<>();
+
+    // Default limits for the commands that hit the database hardest or burn PBKDF2 CPU time
+    public static AdmissionController defaults() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new AdmissionController()
+                .limit("reserve", 50, 100, 1, 3, 8)
+                .limit("reserve_series", 25, 50, 0.5, 2, 4)
+                .limit("login_patient", 20 * cores, 40 * cores, 0.2, 5, cores)
+                .limit("login_caregiver", 20 * cores, 40 * cores, 0.2, 5, cores)
+                .limit("create_patient", 10 * cores, 20 * cores, 0.2, 2, cores)
+                .limit("import_patients", 1, 1, 1, 1, 1);
+    }
+
+    // Registers limits for a command, rates are in requests per second
+    public AdmissionController limit(String command, double globalRate, int globalBurst,
+                                     double userRate, int userBurst, int maxConcurrent) {
+        policies.put(command, new Policy(globalRate, globalBurst, userRate, userBurst, maxConcurrent));
+        return this;
+    }
+
+    // Asks to run `command` for `user`, the key of the per-user bucket (null if nobody is known yet);
+    // the returned admission must be released when the command completes
+    public Admission tryAdmit(String command, String user) {
+        Policy policy = policies.get(command);
+        if (policy == null) {
+            return Admission.UNLIMITED;
+        }
+        long now = System.nanoTime();
+        // a request rejected by a later check gives back the tokens it already took
+        TokenBucket userBucket = null;
+        if (user != null) {
+            userBucket = policy.userBucket(user, now);
+            long wait = userBucket.tryAcquire(now);
+            if (wait > 0) {
+                return Admission.rejected(wait);
+            }
+        }
+        long wait = policy.global.tryAcquire(now);
+        if (wait > 0) {
+            refund(userBucket);
+            return Admission.rejected(wait);
+        }
+        if (!policy.concurrency.tryAcquire()) {
+            refund(userBucket);
+            policy.global.refund();
+            // there is no estimate for when a slot frees up, so suggest the shortest retry
+            return Admission.rejected(1_000_000_000L);
+        }
+        return new Admission(true, 0, policy.concurrency);
+    }
+
+    private static void refund(TokenBucket bucket) {
+        if (bucket != null) {
+            bucket.refund();
+        }
+    }
+
+    private static class Policy {
+        private final TokenBucket global;
+        private final double userRate;
+        private final int userBurst;
+        private final ConcurrencyLimiter concurrency;
+        private final Map<String, TokenBucket> users = new ConcurrentHashMap<>();
+
+        private Policy(double globalRate, int globalBurst, double userRate, int userBurst, int maxConcurrent) {
+            this.global = new TokenBucket(globalRate, globalBurst);
+            this.userRate = userRate;
+            this.userBurst = userBurst;
+            this.concurrency = new ConcurrencyLimiter(maxConcurrent);
+        }
+
+        private TokenBucket userBucket(String user, long now) {
+            TokenBucket bucket = users.get(user);
+            if (bucket == null) {
+                if (users.size() >= MAX_TRACKED_USERS) {
+                    users.values().removeIf(b -> b.isIdle(now));
+                }
+                bucket = users.computeIfAbsent(user, k -> new TokenBucket(userRate, userBurst));
+            }
+            return bucket;
+        }
+    }
+
+    public static class Admission {
+        private static final Admission UNLIMITED = new Admission(true, 0, null);
+
+        private final boolean admitted;
+        private final long retryAfterNanos;
+        private ConcurrencyLimiter slot;
+
+        private Admission(boolean admitted, long retryAfterNanos, ConcurrencyLimiter slot) {
+            this.admitted = admitted;
+            this.retryAfterNanos = retryAfterNanos;
+            this.slot = slot;
+        }
+
+        private static Admission rejected(long retryAfterNanos) {
+            return new Admission(false, retryAfterNanos, null);
+        }
+
+        public boolean isAdmitted() {
+            return admitted;
+        }
+
+        // whole seconds to wait before retrying, at least 1 for a rejected request
+        public long getRetryAfterSeconds() {
+            if (admitted) {
+                return 0;
+            }
+            return Math.max(1, (retryAfterNanos + 999_999_999L) / 1_000_000_000L);
+        }
+
+        public void release() {
+            if (slot != null) {
+                slot.release();
+                slot = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package scheduler.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free circuit breaker.
+// After failureThreshold consecutive failures the breaker opens and rejects calls for openMillis;
+// then a single probe call is let through, which closes the breaker on success or reopens it on failure.
+public class CircuitBreaker {
+    private static final long CLOSED = 0L;
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong(CLOSED);
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1 || openMillis < 1) {
+            throw new IllegalArgumentException("Threshold and open time must be positive!");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+    }
+
+    // Returns 0 if the call may go ahead, otherwise the nanoseconds until the breaker tries again
+    public long tryAcquire(long nowNanos) {
+        long until = openUntil.get();
+        if (until == CLOSED) {
+            return 0;
+        }
+        if (nowNanos - until < 0) {
+            return until - nowNanos;
+        }
+        // half-open: one probe at a time, everyone else keeps failing fast until it reports back
+        return probing.compareAndSet(false, true) ? 0 : openNanos;
+    }
+
+    public void onSuccess() {
+        failures.set(0);
+        openUntil.set(CLOSED);
+        probing.set(false);
+    }
+
+    public void onFailure(long nowNanos) {
+        boolean probe = probing.getAndSet(false);
+        if (probe || failures.incrementAndGet() >= failureThreshold) {
+            long until = nowNanos + openNanos;
+            openUntil.set(until == CLOSED ? 1 : until);
+        }
+    }
+
+    public boolean isOpen(long nowNanos) {
+        long until = openUntil.get();
+        return until != CLOSED && nowNanos - until < 0;
+    }
+}
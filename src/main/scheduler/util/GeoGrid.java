@@ -0,0 +1,137 @@
+package scheduler.util;
+
+import java.util.Arrays;
+
+// Immutable uniform grid over points on the globe, for "everything within r km of here" queries.
+// Points are bucketed into cells of cellDegrees x cellDegrees and stored cell by cell in one int[];
+// the occupied cells are a sorted long[] of cell keys, and a cell's key is row * columns + column, so
+// the cells of one grid row that overlap a query are a single key range found by binary search.
+// A query touches one or two ranges per row of the bounding box, then checks the exact distance.
+public class GeoGrid {
+    public static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180.0;
+
+    private final double cellDegrees;
+    private final int rows;
+    private final int columns;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    // distinct occupied cells, ascending
+    private final long[] cellKeys;
+    // points of cellKeys[i] are points[cellStart[i]] .. points[cellStart[i + 1] - 1]
+    private final int[] cellStart;
+    private final int[] points;
+
+    public interface Visitor {
+        void visit(int point, double distanceKm);
+    }
+
+    public GeoGrid(double[] latitudes, double[] longitudes, double cellDegrees) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Expected as many latitudes as longitudes!");
+        }
+        if (cellDegrees <= 0 || cellDegrees > 90) {
+            throw new IllegalArgumentException("Cell size must be in (0, 90] degrees!");
+        }
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.ceil(180.0 / cellDegrees) + 1;
+        this.columns = (int) Math.ceil(360.0 / cellDegrees) + 1;
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+
+        // sort (cell key, point) pairs packed into longs, then cut them into cells
+        int n = latitudes.length;
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = (key(row(latitudes[i]), column(longitudes[i])) << 32) | i;
+        }
+        Arrays.sort(packed);
+        points = new int[n];
+        long[] keys = new long[n];
+        int[] starts = new int[n + 1];
+        int cells = 0;
+        for (int i = 0; i < n; i++) {
+            long key = packed[i] >>> 32;
+            if (cells == 0 || keys[cells - 1] != key) {
+                keys[cells] = key;
+                starts[cells] = i;
+                cells++;
+            }
+            points[i] = (int) packed[i];
+        }
+        starts[cells] = n;
+        cellKeys = Arrays.copyOf(keys, cells);
+        cellStart = Arrays.copyOf(starts, cells + 1);
+    }
+
+    public int size() {
+        return points.length;
+    }
+
+    // Calls visitor for every point within radiusKm of (latitude, longitude), in no particular order
+    public void forEachWithin(double latitude, double longitude, double radiusKm, Visitor visitor) {
+        double latDegrees = radiusKm / KM_PER_DEGREE;
+        int rowLo = row(Math.max(-90.0, latitude - latDegrees));
+        int rowHi = row(Math.min(90.0, latitude + latDegrees));
+        // a degree of longitude shrinks towards the poles; near them every column is in range
+        double cos = Math.cos(Math.toRadians(Math.min(90.0, Math.abs(latitude) + latDegrees)));
+        double lonDegrees = cos > 1e-6 ? radiusKm / (KM_PER_DEGREE * cos) : 360.0;
+        for (int row = rowLo; row <= rowHi; row++) {
+            // within a cell of the whole parallel both ends can fall in the same column, so take all of it
+            if (lonDegrees >= 180.0 - cellDegrees) {
+                visitRange(row, 0, columns - 1, latitude, longitude, radiusKm, visitor);
+                continue;
+            }
+            int colLo = column(longitude - lonDegrees);
+            int colHi = column(longitude + lonDegrees);
+            if (colLo <= colHi) {
+                visitRange(row, colLo, colHi, latitude, longitude, radiusKm, visitor);
+            } else {
+                // the box crosses the antimeridian
+                visitRange(row, colLo, columns - 1, latitude, longitude, radiusKm, visitor);
+                visitRange(row, 0, colHi, latitude, longitude, radiusKm, visitor);
+            }
+        }
+    }
+
+    private void visitRange(int row, int colLo, int colHi, double latitude, double longitude, double radiusKm,
+                            Visitor visitor) {
+        long last = key(row, colHi);
+        int cell = Arrays.binarySearch(cellKeys, key(row, colLo));
+        if (cell < 0) {
+            cell = -cell - 1;
+        }
+        for (; cell < cellKeys.length && cellKeys[cell] <= last; cell++) {
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                int point = points[i];
+                double distance = distanceKm(latitude, longitude, latitudes[point], longitudes[point]);
+                if (distance <= radiusKm) {
+                    visitor.visit(point, distance);
+                }
+            }
+        }
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor((latitude + 90.0) / cellDegrees);
+    }
+
+    // longitudes outside [-180, 180) wrap around
+    private int column(double longitude) {
+        double wrapped = ((longitude + 180.0) % 360.0 + 360.0) % 360.0;
+        return (int) Math.floor(wrapped / cellDegrees);
+    }
+
+    private long key(int row, int column) {
+        return (long) row * columns + column;
+    }
+
+    // Great-circle distance by the haversine formula
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,129 @@
+package scheduler.util;
+
+import java.util.Arrays;
+
+// Compact String -> int dictionary for usernames and vaccine names.
+// Uses open addressing with linear probing over a plain int[] of ids, and keeps the reverse
+// mapping in a String[] indexed by id, so lookups in both directions allocate nothing.
+// Not thread-safe: a dictionary belongs to one owner (a snapshot, a segment being built), which
+// guards it together with the columns that hold its ids.
+public class NameDictionary {
+
+    private static final int EMPTY = -1;
+
+    private int[] slots;          // id stored at the probe position of its name, EMPTY if free
+    private int[] slotHashes;     // cached hash per slot so probing rarely calls equals()
+    private String[] names;       // id -> name
+    private int size = 0;
+    private int nextId = 0;
+
+    public NameDictionary() {
+        this(16);
+    }
+
+    public NameDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        slots = new int[capacity];
+        slotHashes = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        names = new String[Math.max(4, expectedSize)];
+    }
+
+    // Returns the id of the name, or -1 if it has not been added
+    public int get(String name) {
+        int hash = hash(name);
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = slots[i];
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (slotHashes[i] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    // Returns the name for an id, or null if the id is unknown
+    public String name(int id) {
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    // Returns the existing id of the name, assigning the next free id if it is new
+    public int intern(String name) {
+        int id = get(name);
+        if (id == -1) {
+            id = nextId;
+            put(name, id);
+        }
+        return id;
+    }
+
+    // Registers a name under an id assigned elsewhere (e.g. an identity column)
+    public void put(String name, int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Id cannot be negative!");
+        }
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null!");
+        }
+        if ((size + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, Math.max(id + 1, names.length * 2));
+        }
+        int hash = hash(name);
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] != EMPTY) {
+            if (slotHashes[i] == hash && names[slots[i]].equals(name)) {
+                // re-registering a name moves it to the new id
+                names[slots[i]] = null;
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        if (slots[i] == EMPTY) {
+            size++;
+        }
+        slots[i] = id;
+        slotHashes[i] = hash;
+        names[id] = name;
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // One past the largest id handed out, the length an id-indexed array needs
+    public int idLimit() {
+        return nextId;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldSlots = slots;
+        int[] oldHashes = slotHashes;
+        slots = new int[capacity];
+        slotHashes = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            if (oldSlots[j] != EMPTY) {
+                int i = oldHashes[j] & mask;
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = oldSlots[j];
+                slotHashes[i] = oldHashes[j];
+            }
+        }
+    }
+
+    // spread the bits of String.hashCode() so similar usernames do not cluster
+    private static int hash(String name) {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,51 @@
+package scheduler.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free token bucket, implemented as a generic cell rate algorithm: the only state is the
+// theoretical arrival time of the next request, advanced with a single compare-and-set per call.
+public class TokenBucket {
+    private final long intervalNanos;  // time to refill one token
+    private final long burstNanos;     // how far the arrival time may run ahead of now
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive!");
+        }
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = intervalNanos * burst;
+    }
+
+    // Takes a token if one is available and returns 0, otherwise returns the nanoseconds to wait
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = arrival.get();
+            long start = current == Long.MIN_VALUE ? nowNanos : Math.max(current, nowNanos);
+            long next = start + intervalNanos;
+            long ahead = next - nowNanos;
+            if (ahead > burstNanos) {
+                return ahead - burstNanos;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // Gives back a token taken by tryAcquire, for a request that was rejected by a later check
+    public void refund() {
+        while (true) {
+            long current = arrival.get();
+            if (current == Long.MIN_VALUE || arrival.compareAndSet(current, current - intervalNanos)) {
+                return;
+            }
+        }
+    }
+
+    // true once the bucket has refilled completely, so it carries no state worth keeping
+    public boolean isIdle(long nowNanos) {
+        long current = arrival.get();
+        return current == Long.MIN_VALUE || current <= nowNanos;
+    }
+}
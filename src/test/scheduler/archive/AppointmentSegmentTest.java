@@ -0,0 +1,73 @@
+package scheduler.archive;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks for AppointmentSegment, run with: java scheduler.archive.AppointmentSegmentTest
+public class AppointmentSegmentTest {
+
+    private static final LocalDate MIN = LocalDate.of(1900, 1, 1);
+    private static final LocalDate MAX = LocalDate.of(9999, 12, 31);
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        List<AppointmentRecord> records = new ArrayList<>();
+        records.add(record(1, "pfizer", "2024-03-01", "Carol", "alice"));
+        records.add(record(4, "moderna", "2024-03-05", null, "Bob"));
+        records.add(record(9, null, "2024-03-31", "carol", null));
+        for (int i = 0; i < 500; i++) {
+            records.add(record(10 + i, "pfizer", "2024-03-15", "cg" + (i % 20), "p" + i));
+        }
+        AppointmentSegment built = AppointmentSegment.build(records);
+        // what a lookup sees: the header columns and then the body
+        AppointmentSegment segment = AppointmentSegment.fromHeader(built.getRows(),
+                Date.valueOf(built.getMinDay()), Date.valueOf(built.getMaxDay()), built.getNameFilter());
+        byte[] body = built.getBody();
+
+        List<AppointmentRecord> all = segment.scan(body, MIN, MAX, null, null);
+        check(all.size() == records.size(), "every row round-trips");
+        check(all.get(1).getCaregiverName() == null && all.get(2).getPatientName() == null
+                && all.get(2).getVaccineName() == null, "NULL names stay NULL");
+        check(all.get(2).getId() == 9 && all.get(2).getTime().equals(Date.valueOf("2024-03-31")),
+                "ids and days round-trip");
+
+        check(segment.mayContain(AppointmentSegment.NameColumn.PATIENT, "ALICE"), "filter ignores case");
+        List<AppointmentRecord> carol = segment.scan(body, MIN, MAX, AppointmentSegment.NameColumn.CAREGIVER, "CAROL");
+        check(carol.size() == 2, "caregiver lookup matches every spelling of the name, got " + carol.size());
+        check(segment.scan(body, MIN, MAX, AppointmentSegment.NameColumn.PATIENT, "bob").size() == 1,
+                "patient lookup ignores case");
+
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (segment.mayContain(AppointmentSegment.NameColumn.PATIENT, "absent" + i)) {
+                falsePositives++;
+            }
+        }
+        check(falsePositives < 50, "name filter rejects most absent names, " + falsePositives + " false positives");
+        check(!segment.mayContain(AppointmentSegment.NameColumn.PATIENT, "cg1")
+                        || segment.scan(body, MIN, MAX, AppointmentSegment.NameColumn.PATIENT, "cg1").isEmpty(),
+                "caregiver names do not match patient lookups");
+        check(segment.scan(body, LocalDate.of(2024, 3, 2), LocalDate.of(2024, 3, 14), null, null).size() == 1,
+                "date range narrows the scan");
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("AppointmentSegmentTest OK");
+    }
+
+    private static AppointmentRecord record(int id, String vaccine, String day, String caregiver, String patient) {
+        return new AppointmentRecord(id, vaccine, Date.valueOf(day), caregiver, patient, "default", false);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            failures++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+// Test JDBC driver that wraps another database's connections and injects failures, to exercise the
+// retry, timeout and circuit breaker paths against a local database. Tests call register() before
+// connecting through it.
+// URLs look like  jdbc:faulty:<options>:<real jdbc url>, where options is a comma-separated list of
+//   connect=<p>  probability that opening a connection fails
+//   execute=<p>  probability that executing a statement fails before it reaches the database
+//   commit=<p>   probability that a commit succeeds but reports a failure (a lost acknowledgement)
+//   latency=<ms> delay added to every statement execution
+//   seed=<n>     seed of the random source, for repeatable fault sequences
+// Injected failures carry error 40613 ("database not currently available"), which is transient.
+// Example: JdbcUrl=jdbc:faulty:execute=0.1,commit=0.05,seed=7:jdbc:sqlserver://localhost;database=test
+public class FaultInjectingDriver implements Driver {
+
+    public static final String PREFIX = "jdbc:faulty:";
+    private static final int INJECTED_ERROR = 40613;
+
+    private static volatile boolean registered = false;
+
+    public static synchronized void register() {
+        if (!registered) {
+            try {
+                DriverManager.registerDriver(new FaultInjectingDriver());
+                registered = true;
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        int split = url.indexOf(":jdbc:", PREFIX.length() - 1);
+        if (split < 0) {
+            throw new SQLException("Expected " + PREFIX + "<options>:<jdbc url> but got " + url);
+        }
+        Faults faults = new Faults(url.substring(PREFIX.length(), Math.max(PREFIX.length(), split)));
+        faults.maybeFail(faults.connect, "connect");
+        Connection con = DriverManager.getConnection(url.substring(split + 1), info);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(con, faults));
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    // fault settings parsed from the url; one random source per distinct option string
+    private static class Faults {
+        private static final Map<String, Random> RANDOMS = new HashMap<>();
+
+        private double connect = 0.0;
+        private double execute = 0.0;
+        private double commit = 0.0;
+        private long latencyMillis = 0L;
+        private final Random random;
+
+        private Faults(String options) {
+            long seed = 0L;
+            for (String option : options.split(",")) {
+                if (option.isBlank()) {
+                    continue;
+                }
+                String[] pair = option.split("=");
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Bad fault option: " + option);
+                }
+                switch (pair[0].trim()) {
+                    case "connect":
+                        connect = Double.parseDouble(pair[1]);
+                        break;
+                    case "execute":
+                        execute = Double.parseDouble(pair[1]);
+                        break;
+                    case "commit":
+                        commit = Double.parseDouble(pair[1]);
+                        break;
+                    case "latency":
+                        latencyMillis = Long.parseLong(pair[1]);
+                        break;
+                    case "seed":
+                        seed = Long.parseLong(pair[1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown fault option: " + pair[0]);
+                }
+            }
+            long finalSeed = seed;
+            synchronized (RANDOMS) {
+                random = RANDOMS.computeIfAbsent(options, k -> new Random(finalSeed));
+            }
+        }
+
+        private boolean roll(double probability) {
+            if (probability <= 0.0) {
+                return false;
+            }
+            synchronized (random) {
+                return random.nextDouble() < probability;
+            }
+        }
+
+        private void maybeFail(double probability, String where) throws SQLException {
+            if (roll(probability)) {
+                throw new SQLException("Injected fault on " + where, "08S01", INJECTED_ERROR);
+            }
+        }
+
+        private void delay() throws SQLException {
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted during injected latency");
+                }
+            }
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection con;
+        private final Faults faults;
+
+        private ConnectionHandler(Connection con, Faults faults) {
+            this.con = con;
+            this.faults = faults;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("commit")) {
+                con.commit();
+                faults.maybeFail(faults.commit, "commit acknowledgement");
+                return null;
+            }
+            Object result = FaultInjectingDriver.invoke(con, method, args);
+            if (result instanceof Statement) {
+                // wrap every interface the statement implements (PreparedStatement, CallableStatement)
+                return Proxy.newProxyInstance(Statement.class.getClassLoader(), interfacesOf(method.getReturnType()),
+                        new StatementHandler(result, faults));
+            }
+            return result;
+        }
+
+        private static Class<?>[] interfacesOf(Class<?> type) {
+            return type.isInterface() ? new Class<?>[]{type} : new Class<?>[]{Statement.class};
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final Object statement;
+        private final Faults faults;
+
+        private StatementHandler(Object statement, Faults faults) {
+            this.statement = statement;
+            this.faults = faults;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().startsWith("execute")) {
+                faults.delay();
+                faults.maybeFail(faults.execute, method.getName());
+            }
+            return FaultInjectingDriver.invoke(statement, method, args);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package scheduler.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+// Checks for ShardRouter against several in-memory databases, run with: java scheduler.db.ShardRouterTest
+// Each jdbc:sites:<name> url is a separate database holding the caregivers free on any date it is asked
+// about, so the test needs no server.
+public class ShardRouterTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws SQLException {
+        SiteDriver.register();
+        SiteDriver.databases.put("east", List.of("alice", "bob"));
+        SiteDriver.databases.put("west", List.of("carol"));
+        SiteDriver.databases.put("north", List.of());
+        SiteDriver.databases.put("south", List.of("dave", "erin"));
+
+        fanOutReadsEverySite();
+        failingSiteIsNamed();
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("ShardRouterTest OK");
+    }
+
+    private static void fanOutReadsEverySite() throws SQLException {
+        try (ShardRouter router = router("east", "west", "north", "south")) {
+            Date d = Date.valueOf("2030-01-01");
+            List<ShardRouter.SiteAvailability> found = router.findAvailability(d);
+            List<String> names = new ArrayList<>();
+            for (ShardRouter.SiteAvailability availability : found) {
+                names.add(availability.getSite() + "/" + availability.getUsername());
+                check(d.equals(availability.getTime()), "availability carries the date asked about");
+            }
+            check(names.equals(List.of("east/alice", "east/bob", "west/carol", "south/dave", "south/erin")),
+                    "results of every site are merged in site order, got " + names);
+            // pools hand connections back, so a second fan-out works with the same pools
+            check(router.findAvailability(d).size() == 5, "second fan-out sees the same rows");
+        }
+    }
+
+    private static void failingSiteIsNamed() {
+        try (ShardRouter router = router("east", "missing")) {
+            router.findAvailability(Date.valueOf("2030-01-01"));
+            check(false, "a site without a database fails the fan-out");
+        } catch (SQLException e) {
+            check(e.getMessage().contains("missing"), "error names the failing site: " + e.getMessage());
+        }
+    }
+
+    private static ShardRouter router(String... sites) {
+        ShardRouter router = new ShardRouter();
+        for (String site : sites) {
+            router.addSite(site, new ConnectionPool(SiteDriver.PREFIX + site, null, null, 2, 1_000));
+        }
+        return router;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            failures++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+
+    // Answers every query with the (Username, Site) rows of the database named in the url
+    private static class SiteDriver implements Driver {
+        private static final String PREFIX = "jdbc:sites:";
+        private static final Map<String, List<String>> databases = new ConcurrentHashMap<>();
+
+        private static void register() throws SQLException {
+            DriverManager.registerDriver(new SiteDriver());
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            String site = url.substring(PREFIX.length());
+            List<String> usernames = databases.get(site);
+            if (usernames == null) {
+                // not transient, so the connection retry gives up at once
+                throw new SQLException("Cannot open database " + site, "28000");
+            }
+            return proxy(Connection.class, (method, args) -> {
+                switch (method) {
+                    case "prepareStatement":
+                        return statement(site, usernames);
+                    case "isValid":
+                        return true;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private static PreparedStatement statement(String site, List<String> usernames) {
+            return proxy(PreparedStatement.class, (method, args) -> {
+                if (method.equals("executeQuery")) {
+                    return rows(site, usernames);
+                }
+                return null;
+            });
+        }
+
+        private static ResultSet rows(String site, List<String> usernames) {
+            int[] row = {-1};
+            return proxy(ResultSet.class, (method, args) -> {
+                switch (method) {
+                    case "next":
+                        return ++row[0] < usernames.size();
+                    case "getString":
+                        return args[0].equals("Site") ? site : usernames.get(row[0]);
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private interface Handler {
+            Object handle(String method, Object[] args) throws SQLException;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, Handler handler) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    (p, method, args) -> {
+                        Object result = handler.handle(method.getName(), args);
+                        if (result == null && method.getReturnType() == boolean.class) {
+                            return false;
+                        }
+                        if (result == null && method.getReturnType() == int.class) {
+                            return 0;
+                        }
+                        return result;
+                    });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
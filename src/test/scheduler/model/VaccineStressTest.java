@@ -0,0 +1,94 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Concurrent dose adjustments against a real database, run with: java scheduler.model.VaccineStressTest
+// Needs JdbcUrl (plus UserID and Password) pointing at a scratch database with the schema; skipped otherwise.
+// Hundreds of threads, each with its own Vaccine object like separate processes would have, apply random
+// increments and decrements; the stored count must come out exactly at the sum of the successful ones.
+public class VaccineStressTest {
+
+    private static final int THREADS = 300;
+    private static final int OPERATIONS_PER_THREAD = 20;
+    // enough that no decrement can run out of doses
+    private static final int INITIAL_DOSES = THREADS * OPERATIONS_PER_THREAD * 5;
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("JdbcUrl") == null) {
+            System.out.println("VaccineStressTest skipped, JdbcUrl is not set");
+            return;
+        }
+        String name = "stress-" + System.nanoTime();
+        new Vaccine.VaccineBuilder(name, INITIAL_DOSES).build().saveToDB();
+        try {
+            AtomicLong applied = new AtomicLong();
+            AtomicInteger failed = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        Vaccine vaccine = new Vaccine.VaccineGetter(name).get();
+                        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                            int num = ThreadLocalRandom.current().nextInt(1, 5);
+                            try {
+                                if (ThreadLocalRandom.current().nextBoolean()) {
+                                    vaccine.increaseAvailableDoses(num);
+                                    applied.addAndGet(num);
+                                } else {
+                                    vaccine.decreaseAvailableDoses(num);
+                                    applied.addAndGet(-num);
+                                }
+                            } catch (SQLException e) {
+                                // a failed adjustment is rolled back and must not count
+                                failed.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failed.incrementAndGet();
+                    }
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            if (!executor.awaitTermination(10, TimeUnit.MINUTES)) {
+                throw new AssertionError("stress run did not finish");
+            }
+            int stored = new Vaccine.VaccineGetter(name).get().getAvailableDoses();
+            long expected = INITIAL_DOSES + applied.get();
+            System.out.println("stored " + stored + ", expected " + expected + ", failed adjustments " + failed.get());
+            if (stored != expected) {
+                System.out.println("FAILED: lost or duplicated dose updates");
+                System.exit(1);
+            }
+            System.out.println("VaccineStressTest OK");
+        } finally {
+            delete(name);
+        }
+    }
+
+    private static void delete(String name) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement("DELETE FROM Vaccines WHERE Name = ?");
+            statement.setString(1, name);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package scheduler.service;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.FaultInjectingDriver;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Patient;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.UUID;
+
+// A reserve whose commit succeeds but reports a failure must book exactly once.
+// Run with: java scheduler.service.LostAckReserveTest
+// Needs JdbcUrl=jdbc:faulty:commit=1.0:<url of a scratch database with the schema>, so that every commit
+// the service makes loses its acknowledgement; the fixtures are set up and checked through <url> itself.
+// Skipped without such a JdbcUrl.
+public class LostAckReserveTest {
+
+    private static final int INITIAL_DOSES = 10;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getenv("JdbcUrl");
+        if (url == null || !url.startsWith(FaultInjectingDriver.PREFIX)) {
+            System.out.println("LostAckReserveTest skipped, JdbcUrl is not a " + FaultInjectingDriver.PREFIX + " url");
+            return;
+        }
+        FaultInjectingDriver.register();
+        String realUrl = url.substring(url.indexOf(":jdbc:", FaultInjectingDriver.PREFIX.length() - 1) + 1);
+        String suffix = Long.toString(System.nanoTime(), 36);
+        String caregiver = "lostack-c-" + suffix;
+        String patient = "lostack-p-" + suffix;
+        String vaccine = "lostack-v-" + suffix;
+        Date d = Date.valueOf(LocalDate.of(2099, 1, 1).plusDays(System.nanoTime() % 3000));
+        String token = UUID.randomUUID().toString();
+
+        ConnectionManager cm = new ConnectionManager(realUrl, System.getenv("UserID"), System.getenv("Password"));
+        Connection con = cm.createConnection();
+        try {
+            execute(con, "INSERT INTO Caregivers (Username) VALUES (?)", caregiver);
+            execute(con, "INSERT INTO Patients (Username) VALUES (?)", patient);
+            execute(con, "INSERT INTO Vaccines (Name, Doses) VALUES (?, " + INITIAL_DOSES + ")", vaccine);
+            Availability.add(con, caregiver, "default", d);
+
+            AsyncSchedulerService service = new AsyncSchedulerService();
+            Appointment appointment = service.reserve(new Patient.PatientBuilder(patient, null, null).build(), d,
+                    vaccine, token).join();
+            service.close();
+            check(appointment != null && appointment.getCaregiverName().equalsIgnoreCase(caregiver),
+                    "reserve returns the booked appointment");
+
+            check(count(con, "SELECT COUNT(*) FROM Appointments WHERE Request_token = ?", token) == 1,
+                    "exactly one appointment for the token");
+            check(count(con, "SELECT Doses FROM Vaccines WHERE Name = ?", vaccine) == INITIAL_DOSES - 1,
+                    "the dose is taken exactly once");
+            boolean stillFree = false;
+            ResultSet resultSet = Availability.prepareFreeOn(con, d, false).executeQuery();
+            while (resultSet.next()) {
+                stillFree |= resultSet.getString("Username").equalsIgnoreCase(caregiver);
+            }
+            check(!stillFree, "the caregiver's day is taken");
+            check(count(con, "SELECT Doses FROM DailyVaccineUsage WHERE Vaccine_name = ?", vaccine) == 1,
+                    "the usage rollup counts the booking once");
+        } finally {
+            // best effort, the fixtures use names no other test uses
+            execute(con, "DELETE FROM Appointments WHERE Request_token = ?", token);
+            execute(con, "DELETE FROM DailyVaccineUsage WHERE Vaccine_name = ?", vaccine);
+            execute(con, "DELETE FROM DailyCaregiverLoad WHERE Caregiver_name = ?", caregiver);
+            Availability.remove(con, caregiver, d);
+            execute(con, "DELETE FROM AvailabilityCalendars WHERE Username = ?", caregiver);
+            execute(con, "DELETE FROM Vaccines WHERE Name = ?", vaccine);
+            execute(con, "DELETE FROM Patients WHERE Username = ?", patient);
+            execute(con, "DELETE FROM Caregivers WHERE Username = ?", caregiver);
+            cm.closeConnection();
+        }
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("LostAckReserveTest OK");
+    }
+
+    private static void execute(Connection con, String sql, String parameter) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(sql);
+        statement.setString(1, parameter);
+        statement.executeUpdate();
+    }
+
+    private static int count(Connection con, String sql, String parameter) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(sql);
+        statement.setString(1, parameter);
+        ResultSet resultSet = statement.executeQuery();
+        return resultSet.next() ? resultSet.getInt(1) : -1;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            failures++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package scheduler.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Checks for AdmissionController, run with: java scheduler.util.AdmissionControllerTest
+public class AdmissionControllerTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        rejectedRequestsGiveTokensBack();
+        sessionKeyDoesNotLockOutOthers();
+        p99StaysFlatUnderOverload();
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("AdmissionControllerTest OK");
+    }
+
+    // a request shed for concurrency must not use up the rate tokens it took on the way
+    private static void rejectedRequestsGiveTokensBack() {
+        // rates this low never refill during the test, so only refunds can restore tokens
+        AdmissionController controller = new AdmissionController().limit("reserve", 0.001, 3, 0.001, 1, 1);
+        AdmissionController.Admission holder = controller.tryAdmit("reserve", "alice");
+        check(holder.isAdmitted(), "first request is admitted");
+        for (int i = 0; i < 10; i++) {
+            check(!controller.tryAdmit("reserve", "bob").isAdmitted(), "request over the concurrency limit is shed");
+        }
+        holder.release();
+        AdmissionController.Admission bob = controller.tryAdmit("reserve", "bob");
+        check(bob.isAdmitted(), "shed requests left bob's token in his bucket");
+        bob.release();
+        AdmissionController.Admission carol = controller.tryAdmit("reserve", "carol");
+        check(carol.isAdmitted(), "shed requests left tokens in the global bucket");
+        carol.release();
+
+        // a request shed by the global bucket gives back its user token, which refills ten times slower
+        controller = new AdmissionController().limit("reserve", 0.001, 1, 0.0001, 1, 10);
+        controller.tryAdmit("reserve", "alice").release();
+        check(!controller.tryAdmit("reserve", "bob").isAdmitted(), "global bucket is empty");
+        AdmissionController.Admission bobAgain = controller.tryAdmit("reserve", "bob");
+        check(!bobAgain.isAdmitted() && bobAgain.getRetryAfterSeconds() < 5000,
+                "bob is still waiting on the global bucket, not on his own");
+    }
+
+    // failed logins from one session use that session's bucket, not the bucket of the account they name
+    private static void sessionKeyDoesNotLockOutOthers() {
+        AdmissionController controller = new AdmissionController().limit("login_patient", 1000, 1000, 0.001, 2, 10);
+        for (int i = 0; i < 5; i++) {
+            controller.tryAdmit("login_patient", "session:attacker").release();
+        }
+        check(!controller.tryAdmit("login_patient", "session:attacker").isAdmitted(), "attacker is limited");
+        AdmissionController.Admission victim = controller.tryAdmit("login_patient", "session:victim");
+        check(victim.isAdmitted(), "the account owner's own session is not limited");
+        victim.release();
+    }
+
+    // Offers 1x and then 10x of what the service can handle. Shed requests fail fast, so the latency of the
+    // admitted ones stays about the service time instead of growing with a queue.
+    private static void p99StaysFlatUnderOverload() throws InterruptedException {
+        int maxConcurrent = 4;
+        long serviceNanos = TimeUnit.MILLISECONDS.toNanos(2);
+        // the service finishes maxConcurrent / serviceNanos = 2000 requests per second, admit 1500
+        double capacity = 1500;
+        long p99Nominal = p99(capacity, maxConcurrent, serviceNanos, capacity);
+        long p99Overload = p99(capacity, maxConcurrent, serviceNanos, 10 * capacity);
+        System.out.printf("p99 at 1x: %.2f ms, at 10x: %.2f ms%n", p99Nominal / 1e6, p99Overload / 1e6);
+        check(p99Overload <= 2 * p99Nominal + TimeUnit.MILLISECONDS.toNanos(5),
+                "p99 of admitted requests stays stable at 10x load");
+    }
+
+    // p99 latency in nanoseconds of the admitted requests over one second of `offered` requests per second
+    private static long p99(double rate, int maxConcurrent, long serviceNanos, double offered)
+            throws InterruptedException {
+        AdmissionController controller = new AdmissionController()
+                .limit("reserve", rate, (int) (rate / 100), rate, (int) rate, maxConcurrent);
+        int clients = 64;
+        long intervalNanos = (long) (clients * 1e9 / offered);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger admitted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        for (int c = 0; c < clients; c++) {
+            executor.execute(() -> {
+                long next = System.nanoTime();
+                while (next < end) {
+                    LockSupport.parkNanos(next - System.nanoTime());
+                    long start = System.nanoTime();
+                    AdmissionController.Admission admission = controller.tryAdmit("reserve", "user");
+                    if (admission.isAdmitted()) {
+                        try {
+                            LockSupport.parkNanos(serviceNanos);
+                        } finally {
+                            admission.release();
+                        }
+                        latencies.add(System.nanoTime() - start);
+                        admitted.incrementAndGet();
+                    }
+                    next += intervalNanos;
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        check(admitted.get() <= rate + rate / 100 + 1, "admitted no more than the rate plus the burst");
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return sorted.isEmpty() ? 0 : sorted.get((int) (sorted.size() * 0.99));
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            failures++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package scheduler.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Checks GeoGrid against a brute-force scan, run with: java scheduler.util.GeoGridTest
+public class GeoGridTest {
+
+    private static final double CELL_DEGREES = 0.25;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        randomQueries();
+        antimeridian();
+        poles();
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("GeoGridTest OK");
+    }
+
+    // points and queries anywhere on the globe, with radii from a street to half the planet
+    private static void randomQueries() {
+        Random random = new Random(42);
+        double[] latitudes = new double[5000];
+        double[] longitudes = new double[latitudes.length];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = random.nextDouble() * 180.0 - 90.0;
+            longitudes[i] = random.nextDouble() * 360.0 - 180.0;
+        }
+        GeoGrid grid = new GeoGrid(latitudes, longitudes, CELL_DEGREES);
+        check(grid.size() == latitudes.length, "grid holds every point");
+        double[] radii = {1, 25, 250, 2500, 10000, 20000};
+        for (int q = 0; q < 300; q++) {
+            double latitude = random.nextDouble() * 180.0 - 90.0;
+            double longitude = random.nextDouble() * 360.0 - 180.0;
+            compare(grid, latitudes, longitudes, latitude, longitude, radii[q % radii.length]);
+        }
+    }
+
+    // points on both sides of longitude 180, queried from either side and from exactly on it
+    private static void antimeridian() {
+        double[] latitudes = new double[400];
+        double[] longitudes = new double[latitudes.length];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = -5.0 + (i % 20) * 0.5;
+            // -179.9 .. -178.0 and 178.0 .. 179.9, plus -180 itself
+            double offset = 0.1 * (i / 20);
+            longitudes[i] = i % 2 == 0 ? -180.0 + offset : 180.0 - offset - 0.1;
+        }
+        GeoGrid grid = new GeoGrid(latitudes, longitudes, CELL_DEGREES);
+        double[] queryLongitudes = {-180.0, -179.99, 179.99, 180.0, -179.5, 179.5};
+        for (double longitude : queryLongitudes) {
+            for (double radius : new double[]{5, 50, 300}) {
+                compare(grid, latitudes, longitudes, 0.0, longitude, radius);
+            }
+        }
+        List<Integer> found = within(grid, 0.0, 179.99, 50);
+        boolean bothSides = false;
+        for (int point : found) {
+            bothSides |= longitudes[point] < 0;
+        }
+        check(bothSides, "a query east of 180 finds points west of it");
+        // boxes that almost wrap the whole parallel, so both ends of it fall in the same column
+        for (double radius = 7540; radius <= 7550; radius += 0.5) {
+            compare(grid, latitudes, longitudes, 0.0, -179.9, radius);
+            compare(grid, latitudes, longitudes, 0.0, 37.3, radius);
+        }
+    }
+
+    // points around both poles, where a degree of longitude is almost nothing
+    private static void poles() {
+        Random random = new Random(7);
+        double[] latitudes = new double[2000];
+        double[] longitudes = new double[latitudes.length];
+        for (int i = 0; i < latitudes.length; i++) {
+            double distanceFromPole = random.nextDouble() * 3.0;
+            latitudes[i] = i % 2 == 0 ? 90.0 - distanceFromPole : -90.0 + distanceFromPole;
+            longitudes[i] = random.nextDouble() * 360.0 - 180.0;
+        }
+        latitudes[0] = 90.0;
+        latitudes[1] = -90.0;
+        GeoGrid grid = new GeoGrid(latitudes, longitudes, CELL_DEGREES);
+        double[][] queries = {{90.0, 0.0}, {-90.0, 0.0}, {89.9, 120.0}, {-89.9, -60.0}, {88.0, 179.9},
+                {-88.5, -179.9}, {87.0, 45.0}};
+        for (double[] query : queries) {
+            for (double radius : new double[]{10, 100, 400}) {
+                compare(grid, latitudes, longitudes, query[0], query[1], radius);
+            }
+        }
+        check(within(grid, 90.0, 0.0, 1).contains(0), "the north pole itself is found");
+        check(within(grid, -90.0, 100.0, 1).contains(1), "the south pole itself is found");
+    }
+
+    private static void compare(GeoGrid grid, double[] latitudes, double[] longitudes, double latitude,
+                                double longitude, double radiusKm) {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < latitudes.length; i++) {
+            if (GeoGrid.distanceKm(latitude, longitude, latitudes[i], longitudes[i]) <= radiusKm) {
+                expected.add(i);
+            }
+        }
+        List<Integer> actual = within(grid, latitude, longitude, radiusKm);
+        check(actual.equals(expected), "grid finds the same " + expected.size() + " point(s) as brute force within "
+                + radiusKm + " km of (" + latitude + ", " + longitude + "), got " + actual.size());
+    }
+
+    // points the grid visits, sorted; a point visited twice shows up twice
+    private static List<Integer> within(GeoGrid grid, double latitude, double longitude, double radiusKm) {
+        List<Integer> found = new ArrayList<>();
+        grid.forEachWithin(latitude, longitude, radiusKm, (point, distanceKm) -> found.add(point));
+        Collections.sort(found);
+        return found;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            failures++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+}